@@ -0,0 +1,111 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * AhoCorasick Created with rocketmq-flume.
+ *
+ * Multi-literal substring search over raw bytes. The automaton is built once into a full
+ * transition table (256 entries per state), so a search is one array lookup per input byte
+ * and allocates nothing.
+ */
+public class AhoCorasick {
+
+    private final int[][] delta;
+
+    private final boolean[] terminal;
+
+    public AhoCorasick(List<byte[]> literals) {
+        if ( null == literals || literals.isEmpty() ) {
+            throw new IllegalArgumentException("literals should not be empty.");
+        }
+
+        // trie
+        List<int[]> gotoTable = new ArrayList<int[]>();
+        List<Boolean> outputs = new ArrayList<Boolean>();
+        gotoTable.add(newRow());
+        outputs.add(Boolean.FALSE);
+        for ( byte[] literal : literals ) {
+            int state = 0;
+            for ( byte b : literal ) {
+                int next = gotoTable.get(state)[b & 0xFF];
+                if ( next < 0 ) {
+                    next = gotoTable.size();
+                    gotoTable.add(newRow());
+                    outputs.add(Boolean.FALSE);
+                    gotoTable.get(state)[b & 0xFF] = next;
+                }
+                state = next;
+            }
+            outputs.set(state, Boolean.TRUE);
+        }
+
+        // failure links, folded into a complete transition table in BFS order
+        int size = gotoTable.size();
+        delta = new int[size][];
+        terminal = new boolean[size];
+        int[] fail = new int[size];
+        for ( int i = 0; i < size; i++ ) {
+            delta[i] = gotoTable.get(i);
+            terminal[i] = outputs.get(i);
+        }
+        LinkedList<Integer> queue = new LinkedList<Integer>();
+        for ( int c = 0; c < 256; c++ ) {
+            int next = delta[0][c];
+            if ( next < 0 ) {
+                delta[0][c] = 0;
+            } else {
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while ( !queue.isEmpty() ) {
+            int state = queue.removeFirst();
+            terminal[state] |= terminal[fail[state]];
+            for ( int c = 0; c < 256; c++ ) {
+                int next = delta[state][c];
+                if ( next < 0 ) {
+                    delta[state][c] = delta[fail[state]][c];
+                } else {
+                    fail[next] = delta[fail[state]][c];
+                    queue.add(next);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether any of the literals occurs in data[from, to).
+     */
+    public boolean containsAny(byte[] data, int from, int to) {
+        if ( terminal[0] ) {
+            return true;
+        }
+        int state = 0;
+        for ( int i = from; i < to; i++ ) {
+            state = delta[state][data[i] & 0xFF];
+            if ( terminal[state] ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsAny(byte[] data) {
+        return containsAny(data, 0, data.length);
+    }
+
+    public int getStateCount() {
+        return delta.length;
+    }
+
+    private static int[] newRow() {
+        int[] row = new int[256];
+        for ( int i = 0; i < row.length; i++ ) {
+            row[i] = -1;
+        }
+        return row;
+    }
+}
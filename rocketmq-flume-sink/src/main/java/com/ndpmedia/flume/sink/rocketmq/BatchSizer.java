@@ -0,0 +1,80 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * BatchSizer Created with rocketmq-flume.
+ *
+ * AIMD control of the number of events taken per transaction: a full batch sent within the
+ * target latency adds increment, a slow or failed one multiplies the size by decreaseFactor,
+ * always within [min, max]. Underfilled batches leave the size alone, there was nothing more
+ * to take. With min == max the size is fixed.
+ */
+public class BatchSizer {
+
+    private final int min;
+
+    private final int max;
+
+    private final long targetMicros;
+
+    private final int increment;
+
+    private final double decreaseFactor;
+
+    private final AtomicInteger current;
+
+    public BatchSizer(int min, int max, int initial, long targetMillis, int increment, double decreaseFactor) {
+        if ( min <= 0 || max < min ) {
+            throw new IllegalArgumentException("batch size bounds should be 0 < min <= max, min=" + min + ", max=" + max);
+        }
+        if ( decreaseFactor <= 0 || decreaseFactor >= 1 ) {
+            throw new IllegalArgumentException("batchSizeDecreaseFactor should be in (0, 1)");
+        }
+        this.min = min;
+        this.max = max;
+        this.targetMicros = targetMillis * 1000L;
+        this.increment = Math.max(1, increment);
+        this.decreaseFactor = decreaseFactor;
+        this.current = new AtomicInteger(Math.max(min, Math.min(max, initial)));
+    }
+
+    public static BatchSizer fixed(int batchSize) {
+        return new BatchSizer(batchSize, batchSize, batchSize, Long.MAX_VALUE / 1000L, 1, 0.5);
+    }
+
+    public int current() {
+        return current.get();
+    }
+
+    /**
+     * @param limit the size the batch was taken with
+     * @param taken events taken from the channel
+     * @param latencyMicros time spent sending the batch
+     * @param failed the batch was not sent
+     */
+    public void onBatch(int limit, int taken, long latencyMicros, boolean failed) {
+        if ( min == max ) {
+            return;
+        }
+        boolean slow = failed || latencyMicros > targetMicros;
+        if ( !slow && taken < limit ) {
+            return;
+        }
+        while ( true ) {
+            int size = current.get();
+            int next = slow ? Math.max(min, (int) (size * decreaseFactor)) : Math.min(max, size + increment);
+            if ( next == size || current.compareAndSet(size, next) ) {
+                return;
+            }
+        }
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * BodyCodec Created with rocketmq-flume.
+ *
+ * Message body compression. The codec name is written to the
+ * {@link RocketMQSinkConstant#CODEC_PROPERTY} user property so RocketMQSource can inflate it.
+ */
+public enum BodyCodec {
+
+    NONE {
+        @Override public byte[] compress(byte[] body) {
+            return body;
+        }
+    },
+
+    GZIP {
+        @Override public byte[] compress(byte[] body) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 32);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            try {
+                gzip.write(body);
+            } finally {
+                gzip.close();
+            }
+            return out.toByteArray();
+        }
+    },
+
+    DEFLATE {
+        @Override public byte[] compress(byte[] body) {
+            Deflater deflater = new Deflater();
+            try {
+                deflater.setInput(body);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 32);
+                byte[] buffer = new byte[4096];
+                while ( !deflater.finished() ) {
+                    int n = deflater.deflate(buffer);
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+    },
+
+    SNAPPY {
+        @Override public byte[] compress(byte[] body) throws IOException {
+            return Snappy.compress(body);
+        }
+    };
+
+    public abstract byte[] compress(byte[] body) throws IOException;
+
+    public static BodyCodec of(String name) {
+        if ( null == name || name.trim().length() == 0 ) {
+            return NONE;
+        }
+        return valueOf(name.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,229 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * BrokerCircuitBreaker Created with rocketmq-flume.
+ *
+ * Tracks an EWMA of send latency and of the error rate per broker. A broker going over either
+ * threshold is opened and its queues are left out of queue selection; after openMillis a few
+ * probe sends go to it again, and it is closed once all of them come back fast and fine. A
+ * probe permit is only taken when the probe is actually sent, only the results of probe sends
+ * count while half open, and a broker whose probes have not all come back within openMillis
+ * is opened again.
+ */
+public class BrokerCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerCircuitBreaker.class);
+
+    private static final double ALPHA = 0.2;
+
+    private static final int MIN_SAMPLES = 10;//样本数不足时不打开
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    static class Broker {
+
+        volatile State state = State.CLOSED;
+
+        double latencyMicros;
+
+        double errorRate;
+
+        long samples;
+
+        long openedAt;
+
+        int probesLeft;
+
+        int probeSuccesses;
+
+        long probeDeadline;//最后一个探测名额发出后, 在此之前没有全部返回则重新打开
+    }
+
+    private final long latencyThresholdMicros;
+
+    private final double errorRateThreshold;
+
+    private final long openMillis;
+
+    private final int probes;
+
+    private final RocketMQSinkCounter counter;
+
+    private final ConcurrentMap<String, Broker> brokers = new ConcurrentHashMap<String, Broker>();
+
+    public BrokerCircuitBreaker(long latencyThresholdMillis, double errorRateThreshold, long openMillis, int probes,
+                                RocketMQSinkCounter counter) {
+        this.latencyThresholdMicros = latencyThresholdMillis * 1000L;
+        this.errorRateThreshold = errorRateThreshold;
+        this.openMillis = openMillis;
+        this.probes = Math.max(1, probes);
+        this.counter = counter;
+    }
+
+    private Broker broker(String name) {
+        Broker broker = brokers.get(name);
+        if ( null == broker ) {
+            broker = new Broker();
+            Broker existing = brokers.putIfAbsent(name, broker);
+            if ( null != existing ) {
+                broker = existing;
+            }
+        }
+        return broker;
+    }
+
+    /**
+     * @param probe the send took a probe permit with {@link #tryProbe(String)}
+     */
+    public void record(String name, long latencyMicros, boolean ok, boolean probe) {
+        Broker broker = broker(name);
+        boolean bad = !ok || latencyMicros > latencyThresholdMicros;
+        synchronized ( broker ) {
+            switch ( broker.state ) {
+            case OPEN:
+                // 打开前发出的消息的回调
+                return;
+            case HALF_OPEN:
+                if ( !probe ) {
+                    // 打开前发出的消息的回调, 不算探测结果
+                    return;
+                }
+                if ( bad ) {
+                    open(name, broker);
+                } else if ( ++broker.probeSuccesses >= probes ) {
+                    broker.state = State.CLOSED;
+                    broker.latencyMicros = latencyMicros;
+                    broker.errorRate = 0;
+                    broker.samples = 1;
+                    LOG.warn("broker {} circuit closed", name);
+                }
+                return;
+            default:
+                broker.latencyMicros = broker.samples == 0 ? latencyMicros : broker.latencyMicros + ALPHA * (latencyMicros - broker.latencyMicros);
+                broker.errorRate += ALPHA * ((ok ? 0 : 1) - broker.errorRate);
+                broker.samples++;
+                if ( broker.samples >= MIN_SAMPLES
+                        && (broker.latencyMicros > latencyThresholdMicros || broker.errorRate > errorRateThreshold) ) {
+                    open(name, broker);
+                }
+            }
+        }
+    }
+
+    private void open(String name, Broker broker) {
+        LOG.warn("broker {} circuit opened, latency ewma={}us, error rate={}", name, (long) broker.latencyMicros, broker.errorRate);
+        broker.state = State.OPEN;
+        broker.openedAt = System.currentTimeMillis();
+        counter.incrementBreakerOpenedCount();
+    }
+
+    public boolean isClosed(String name) {
+        Broker broker = brokers.get(name);
+        return null == broker || broker.state == State.CLOSED;
+    }
+
+    /**
+     * The queues on closed brokers, or all of them when every broker is open.
+     */
+    public List<MessageQueue> available(List<MessageQueue> queues) {
+        List<MessageQueue> result = null;
+        for ( int i = 0; i < queues.size(); i++ ) {
+            MessageQueue queue = queues.get(i);
+            if ( isClosed(queue.getBrokerName()) ) {
+                if ( null != result ) {
+                    result.add(queue);
+                }
+            } else if ( null == result ) {
+                result = new ArrayList<MessageQueue>(queues.subList(0, i));
+            }
+        }
+        if ( null == result ) {
+            return queues;
+        }
+        return result.isEmpty() ? queues : result;
+    }
+
+    /**
+     * Find a broker that may take a probe, half opening it when its open interval is over. No
+     * permit is taken here, see {@link #tryProbe(String)}.
+     *
+     * @return a queue of that broker for one probe send, or null.
+     */
+    public MessageQueue probe(List<MessageQueue> queues) {
+        long now = System.currentTimeMillis();
+        for ( MessageQueue queue : queues ) {
+            Broker broker = brokers.get(queue.getBrokerName());
+            if ( null == broker || broker.state == State.CLOSED ) {
+                continue;
+            }
+            synchronized ( broker ) {
+                if ( broker.state == State.HALF_OPEN && broker.probesLeft == 0 && now >= broker.probeDeadline ) {
+                    LOG.warn("broker {} probes timed out", queue.getBrokerName());
+                    open(queue.getBrokerName(), broker);
+                }
+                if ( broker.state == State.OPEN && now - broker.openedAt >= openMillis ) {
+                    broker.state = State.HALF_OPEN;
+                    broker.probesLeft = probes;
+                    broker.probeSuccesses = 0;
+                }
+                if ( broker.state == State.HALF_OPEN && broker.probesLeft > 0 ) {
+                    return queue;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Take a probe permit of the broker right before a probe is sent to it.
+     *
+     * @return false if the broker is not half open or its permits are gone.
+     */
+    public boolean tryProbe(String name) {
+        Broker broker = brokers.get(name);
+        if ( null == broker ) {
+            return false;
+        }
+        synchronized ( broker ) {
+            if ( broker.state != State.HALF_OPEN || broker.probesLeft == 0 ) {
+                return false;
+            }
+            broker.probesLeft--;
+            broker.probeDeadline = System.currentTimeMillis() + openMillis;
+            return true;
+        }
+    }
+
+    /**
+     * broker:STATE,latency=..us,errorRate=..;... for the brokers that are not closed.
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for ( Map.Entry<String, Broker> entry : brokers.entrySet() ) {
+            Broker broker = entry.getValue();
+            synchronized ( broker ) {
+                if ( broker.state == State.CLOSED ) {
+                    continue;
+                }
+                if ( sb.length() > 0 ) {
+                    sb.append(';');
+                }
+                sb.append(entry.getKey()).append(':').append(broker.state).append(",latency=").append((long) broker.latencyMicros)
+                        .append("us,errorRate=").append(String.format("%.2f", broker.errorRate));
+            }
+        }
+        return sb.toString();
+    }
+}
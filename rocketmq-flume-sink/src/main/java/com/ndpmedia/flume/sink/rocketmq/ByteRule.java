@@ -0,0 +1,216 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * ByteRule Created with rocketmq-flume.
+ *
+ * One allow/deny expression evaluated directly on the event body bytes, with the same
+ * whole-body semantics as {@link String#matches(String)}. The expression is split on its
+ * top-level '|' and every alternative of the shape
+ * <pre>
+ *   LIT        equals
+ *   LIT.*      prefix       (a leading '^' is redundant and ignored)
+ *   .*LIT      suffix       (a trailing '$' is redundant and ignored)
+ *   .*LIT.*    contains     (all of them share one Aho-Corasick automaton)
+ * </pre>
+ * is matched on bytes without decoding. Any other alternative is a real regex and is
+ * kept in a fallback Pattern that only runs, on the decoded body, when no literal matched.
+ *
+ * '.' is compiled with DOTALL here, so ".*" spans line breaks in literal and regex
+ * alternatives alike.
+ */
+public class ByteRule {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String META = "\\.[]{}()*+?^$|";
+
+    private final List<byte[]> equalsLiterals = new ArrayList<byte[]>();
+
+    private final List<byte[]> prefixes = new ArrayList<byte[]>();
+
+    private final List<byte[]> suffixes = new ArrayList<byte[]>();
+
+    private final AhoCorasick contains;
+
+    private final boolean matchAll;
+
+    private final Pattern fallback;
+
+    private final ThreadLocal<Matcher> fallbackMatcher;
+
+    public ByteRule(String regex) {
+        List<byte[]> containsLiterals = new ArrayList<byte[]>();
+        List<String> regexAlternatives = new ArrayList<String>();
+        boolean all = false;
+
+        List<String> alternatives = splitAlternatives(regex);
+        if ( null == alternatives ) {
+            regexAlternatives.add(regex);
+        } else {
+            for ( String alternative : alternatives ) {
+                String core = alternative;
+                if ( core.startsWith("^") ) {
+                    core = core.substring(1);
+                }
+                if ( core.endsWith("$") && !isEscaped(core, core.length() - 1) ) {
+                    core = core.substring(0, core.length() - 1);
+                }
+                boolean leadingAny = core.startsWith(".*");
+                if ( leadingAny ) {
+                    core = core.substring(2);
+                }
+                boolean trailingAny = core.endsWith(".*") && !isEscaped(core, core.length() - 2);
+                if ( trailingAny ) {
+                    core = core.substring(0, core.length() - 2);
+                }
+
+                String literal = literalOf(core);
+                if ( null == literal ) {
+                    regexAlternatives.add(alternative);
+                    continue;
+                }
+                byte[] bytes = literal.getBytes(UTF_8);
+                if ( leadingAny && trailingAny ) {
+                    if ( bytes.length == 0 ) {
+                        all = true;
+                    } else {
+                        containsLiterals.add(bytes);
+                    }
+                } else if ( trailingAny ) {
+                    prefixes.add(bytes);
+                } else if ( leadingAny ) {
+                    suffixes.add(bytes);
+                } else {
+                    equalsLiterals.add(bytes);
+                }
+            }
+        }
+
+        this.matchAll = all;
+        this.contains = containsLiterals.isEmpty() ? null : new AhoCorasick(containsLiterals);
+        if ( regexAlternatives.isEmpty() ) {
+            this.fallback = null;
+            this.fallbackMatcher = null;
+        } else {
+            StringBuilder joined = new StringBuilder();
+            for ( String alternative : regexAlternatives ) {
+                if ( joined.length() > 0 ) {
+                    joined.append('|');
+                }
+                joined.append(alternative);
+            }
+            this.fallback = Pattern.compile(joined.toString(), Pattern.DOTALL);
+            this.fallbackMatcher = new ThreadLocal<Matcher>() {
+                @Override protected Matcher initialValue() {
+                    return fallback.matcher("");
+                }
+            };
+        }
+    }
+
+    public boolean matches(byte[] body) {
+        if ( matchAll ) {
+            return true;
+        }
+        for ( int i = 0; i < equalsLiterals.size(); i++ ) {
+            byte[] literal = equalsLiterals.get(i);
+            if ( literal.length == body.length && regionEquals(body, 0, literal) ) {
+                return true;
+            }
+        }
+        for ( int i = 0; i < prefixes.size(); i++ ) {
+            byte[] prefix = prefixes.get(i);
+            if ( prefix.length <= body.length && regionEquals(body, 0, prefix) ) {
+                return true;
+            }
+        }
+        for ( int i = 0; i < suffixes.size(); i++ ) {
+            byte[] suffix = suffixes.get(i);
+            if ( suffix.length <= body.length && regionEquals(body, body.length - suffix.length, suffix) ) {
+                return true;
+            }
+        }
+        if ( null != contains && contains.containsAny(body) ) {
+            return true;
+        }
+        return null != fallback && fallbackMatcher.get().reset(new String(body, UTF_8)).matches();
+    }
+
+    /**
+     * Whether evaluating this rule may decode the body.
+     */
+    public boolean hasFallback() {
+        return null != fallback;
+    }
+
+    private static boolean regionEquals(byte[] data, int offset, byte[] literal) {
+        for ( int i = 0; i < literal.length; i++ ) {
+            if ( data[offset + i] != literal[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Split on unescaped '|'. Returns null when the expression has groups or classes, in which
+     * case a '|' may be nested and the expression is left to the regex engine as a whole.
+     */
+    private static List<String> splitAlternatives(String regex) {
+        List<String> alternatives = new ArrayList<String>();
+        int start = 0;
+        for ( int i = 0; i < regex.length(); i++ ) {
+            char c = regex.charAt(i);
+            if ( c == '\\' ) {
+                i++;
+            } else if ( c == '(' || c == '[' ) {
+                return null;
+            } else if ( c == '|' ) {
+                alternatives.add(regex.substring(start, i));
+                start = i + 1;
+            }
+        }
+        alternatives.add(regex.substring(start));
+        return alternatives;
+    }
+
+    /**
+     * The unescaped text when s contains no regex construct, otherwise null.
+     */
+    private static String literalOf(String s) {
+        StringBuilder literal = new StringBuilder(s.length());
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            if ( c == '\\' ) {
+                if ( i + 1 >= s.length() ) {
+                    return null;
+                }
+                char next = s.charAt(++i);
+                // \d, \s, \Q, \1 ... are constructs, only escaped punctuation is literal
+                if ( Character.isLetterOrDigit(next) ) {
+                    return null;
+                }
+                literal.append(next);
+            } else if ( META.indexOf(c) >= 0 ) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private static boolean isEscaped(String s, int index) {
+        int backslashes = 0;
+        for ( int i = index - 1; i >= 0 && s.charAt(i) == '\\'; i-- ) {
+            backslashes++;
+        }
+        return backslashes % 2 == 1;
+    }
+}
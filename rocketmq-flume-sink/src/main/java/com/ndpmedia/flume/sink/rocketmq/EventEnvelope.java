@@ -0,0 +1,176 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * EventEnvelope Created with rocketmq-flume.
+ *
+ * Packs several events for the same topic, tag and partition key into one message body. Every
+ * event is written as
+ * <pre>
+ * varint headerCount, (varint keyLength, key, varint valueLength, value) * headerCount,
+ * varint bodyLength, body
+ * </pre>
+ * with UTF-8 strings, back to back; RocketMQSource reads events until the end of the body.
+ * An envelope is full at maxEvents events or maxBytes bytes, except that a single event is
+ * always accepted.
+ */
+public class EventEnvelope {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String topic;
+
+    private final String tag;
+
+    private final String key;
+
+    private final int maxEvents;
+
+    private final int maxBytes;
+
+    private byte[] buf;
+
+    private int pos;
+
+    private int count;
+
+    public EventEnvelope(String topic, String tag, String key, int maxEvents, int maxBytes) {
+        this.topic = topic;
+        this.tag = tag;
+        this.key = key;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+        this.buf = new byte[Math.min(maxBytes, 4096)];
+    }
+
+    /**
+     * One event in the envelope format, sized exactly; used as the body when headers are encoded
+     * in binary instead of as user properties.
+     */
+    public static byte[] encode(Map<String, String> headers, byte[] body) {
+        int size = varintSize(body.length) + body.length;
+        byte[][] strings = new byte[null == headers ? 0 : headers.size() * 2][];
+        int i = 0;
+        if ( null != headers ) {
+            for ( Map.Entry<String, String> entry : headers.entrySet() ) {
+                strings[i++] = entry.getKey().getBytes(UTF8);
+                strings[i++] = (null == entry.getValue() ? "" : entry.getValue()).getBytes(UTF8);
+            }
+        }
+        size += varintSize(strings.length / 2);
+        for ( byte[] string : strings ) {
+            size += varintSize(string.length) + string.length;
+        }
+        byte[] out = new byte[size];
+        int pos = putVarint(out, 0, strings.length / 2);
+        for ( byte[] string : strings ) {
+            pos = putVarint(out, pos, string.length);
+            System.arraycopy(string, 0, out, pos, string.length);
+            pos += string.length;
+        }
+        pos = putVarint(out, pos, body.length);
+        System.arraycopy(body, 0, out, pos, body.length);
+        return out;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ( (value & ~0x7F) != 0 ) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * @return false, leaving the envelope as it was, when the event would take it over maxBytes.
+     */
+    public boolean add(Map<String, String> headers, byte[] body) {
+        int mark = pos;
+        if ( null == headers ) {
+            writeVarint(0);
+        } else {
+            writeVarint(headers.size());
+            for ( Map.Entry<String, String> entry : headers.entrySet() ) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+        writeVarint(body.length);
+        write(body);
+        if ( pos > maxBytes && count > 0 ) {
+            pos = mark;
+            return false;
+        }
+        count++;
+        return true;
+    }
+
+    public boolean isFull() {
+        return count >= maxEvents || pos >= maxBytes;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, pos);
+    }
+
+    public void reset() {
+        pos = 0;
+        count = 0;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = (null == value ? "" : value).getBytes(UTF8);
+        writeVarint(bytes.length);
+        write(bytes);
+    }
+
+    private void writeVarint(int value) {
+        ensure(5);
+        pos = putVarint(buf, pos, value);
+    }
+
+    private static int putVarint(byte[] out, int pos, int value) {
+        while ( (value & ~0x7F) != 0 ) {
+            out[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte) value;
+        return pos;
+    }
+
+    private void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, pos, bytes.length);
+        pos += bytes.length;
+    }
+
+    private void ensure(int n) {
+        if ( pos + n > buf.length ) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+}
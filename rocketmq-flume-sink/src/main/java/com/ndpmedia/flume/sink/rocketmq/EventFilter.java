@@ -0,0 +1,101 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.nio.charset.Charset;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * EventFilter Created with rocketmq-flume.
+ *
+ * The allow/deny rules of the sink. Both patterns are compiled once, the body is decoded
+ * at most once per event and each thread keeps its own Matcher for every pattern.
+ *
+ * In bytes mode the rules are {@link ByteRule}s instead, which match literal, prefix and
+ * substring alternatives on the raw body and only decode it for real regexes.
+ */
+public class EventFilter {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public enum Verdict {
+        ACCEPT, DENIED, NOT_ALLOWED
+    }
+
+    private final Pattern allow;
+
+    private final Pattern deny;
+
+    private final ThreadLocal<Matcher> allowMatcher;
+
+    private final ThreadLocal<Matcher> denyMatcher;
+
+    private final ByteRule allowRule;
+
+    private final ByteRule denyRule;
+
+    public EventFilter(String allow, String deny) {
+        this(allow, deny, false);
+    }
+
+    public EventFilter(String allow, String deny, boolean bytes) {
+        if ( bytes ) {
+            this.allowRule = isBlank(allow) ? null : new ByteRule(allow);
+            this.denyRule = isBlank(deny) ? null : new ByteRule(deny);
+            this.allow = null;
+            this.deny = null;
+        } else {
+            this.allowRule = null;
+            this.denyRule = null;
+            this.allow = compile(allow);
+            this.deny = compile(deny);
+        }
+        this.allowMatcher = matcherOf(this.allow);
+        this.denyMatcher = matcherOf(this.deny);
+    }
+
+    public boolean isEnabled() {
+        return null != allow || null != deny || null != allowRule || null != denyRule;
+    }
+
+    public Verdict filter(byte[] body) {
+        if ( null != denyRule && denyRule.matches(body) ) {
+            return Verdict.DENIED;
+        }
+        if ( null != allowRule && !allowRule.matches(body) ) {
+            return Verdict.NOT_ALLOWED;
+        }
+        if ( null == allow && null == deny ) {
+            return Verdict.ACCEPT;
+        }
+        String text = new String(body, UTF_8);
+        if ( null != deny && denyMatcher.get().reset(text).matches() ) {
+            return Verdict.DENIED;
+        }
+        if ( null != allow && !allowMatcher.get().reset(text).matches() ) {
+            return Verdict.NOT_ALLOWED;
+        }
+        return Verdict.ACCEPT;
+    }
+
+    private static Pattern compile(String regex) {
+        if ( isBlank(regex) ) {
+            return null;
+        }
+        return Pattern.compile(regex);
+    }
+
+    private static boolean isBlank(String s) {
+        return null == s || s.trim().length() == 0;
+    }
+
+    private static ThreadLocal<Matcher> matcherOf(final Pattern pattern) {
+        if ( null == pattern ) {
+            return null;
+        }
+        return new ThreadLocal<Matcher>() {
+            @Override protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
+    }
+}
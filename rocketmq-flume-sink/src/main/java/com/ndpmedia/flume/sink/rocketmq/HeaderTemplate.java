@@ -0,0 +1,128 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HeaderTemplate Created with rocketmq-flume.
+ *
+ * A topic or tag such as "T_${app}" or "${level:INFO}", parsed once. Each ${name} is replaced by
+ * the event header of that name, or by the text after ':' (empty if none) when the header is
+ * missing. A template without placeholders renders to the same String instance every time.
+ * {@link #renderStrict} tells a missing header without a default apart, for topics.
+ */
+public class HeaderTemplate {
+
+    private final String constant;
+
+    private final String[] literals;
+
+    private final String[] names;
+
+    private final String[] defaults;
+
+    private HeaderTemplate(String constant, String[] literals, String[] names, String[] defaults) {
+        this.constant = constant;
+        this.literals = literals;
+        this.names = names;
+        this.defaults = defaults;
+    }
+
+    public static HeaderTemplate compile(String template) {
+        if ( null == template ) {
+            template = "";
+        }
+        List<String> literals = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        List<String> defaults = new ArrayList<String>();
+        int from = 0;
+        while ( true ) {
+            int start = template.indexOf("${", from);
+            if ( start < 0 ) {
+                break;
+            }
+            int end = template.indexOf('}', start + 2);
+            if ( end < 0 ) {
+                throw new IllegalArgumentException("Unclosed ${ in template: " + template);
+            }
+            String placeholder = template.substring(start + 2, end);
+            int colon = placeholder.indexOf(':');
+            String name = colon < 0 ? placeholder : placeholder.substring(0, colon);
+            if ( name.trim().length() == 0 ) {
+                throw new IllegalArgumentException("Empty header name in template: " + template);
+            }
+            literals.add(template.substring(from, start));
+            names.add(name.trim());
+            defaults.add(colon < 0 ? null : placeholder.substring(colon + 1));
+            from = end + 1;
+        }
+        if ( names.isEmpty() ) {
+            return new HeaderTemplate(template, null, null, null);
+        }
+        literals.add(template.substring(from));
+        return new HeaderTemplate(null, literals.toArray(new String[literals.size()]),
+                names.toArray(new String[names.size()]), defaults.toArray(new String[defaults.size()]));
+    }
+
+    public boolean isConstant() {
+        return null != constant;
+    }
+
+    public String render(Map<String, String> headers) {
+        if ( null != constant ) {
+            return constant;
+        }
+        StringBuilder sb = new StringBuilder(32);
+        for ( int i = 0; i < names.length; i++ ) {
+            sb.append(literals[i]);
+            String value = null == headers ? null : headers.get(names[i]);
+            if ( null == value ) {
+                value = null == defaults[i] ? "" : defaults[i];
+            }
+            sb.append(value);
+        }
+        sb.append(literals[names.length]);
+        return sb.toString();
+    }
+
+    /**
+     * @return null when a header without a default is missing or empty
+     */
+    public String renderStrict(Map<String, String> headers) {
+        if ( null != constant ) {
+            return constant;
+        }
+        StringBuilder sb = new StringBuilder(32);
+        for ( int i = 0; i < names.length; i++ ) {
+            sb.append(literals[i]);
+            String value = null == headers ? null : headers.get(names[i]);
+            if ( null == value || value.length() == 0 ) {
+                if ( null == defaults[i] ) {
+                    return null;
+                }
+                value = defaults[i];
+            }
+            sb.append(value);
+        }
+        sb.append(literals[names.length]);
+        return sb.toString();
+    }
+
+    /**
+     * The characters and length the broker accepts in a topic name.
+     */
+    public static boolean isValidTopic(String topic) {
+        if ( null == topic || topic.length() == 0 || topic.length() > 255 ) {
+            return false;
+        }
+        for ( int i = 0; i < topic.length(); i++ ) {
+            char c = topic.charAt(i);
+            if ( !((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '_' || c == '-' || c == '%' || c == '|') ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InFlightWindow Created with rocketmq-flume.
+ *
+ * Bounds the number of asynchronous sends that have been handed to the producer
+ * but whose SendCallback has not fired yet.
+ */
+public class InFlightWindow {
+
+    private final int capacity;
+
+    private final Semaphore permits;
+
+    public InFlightWindow(int capacity) {
+        if ( capacity <= 0 ) {
+            throw new IllegalArgumentException("capacity should be greater than 0.");
+        }
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Reserve a slot for one send, waiting at most timeoutMillis for a callback to free one.
+     */
+    public boolean acquire(long timeoutMillis) throws InterruptedException {
+        return permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getInFlight() {
+        return capacity - permits.availablePermits();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,64 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.MessageQueueSelector;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+import java.util.List;
+
+/**
+ * KeyHashQueueSelector Created with rocketmq-flume.
+ *
+ * Maps a partition key (the arg) to a queue with 32-bit murmur3 over the key's chars, so the
+ * same key always lands on the same queue as long as the queue list does not change.
+ */
+public class KeyHashQueueSelector implements MessageQueueSelector {
+
+    private static final int C1 = 0xcc9e2d51;
+
+    private static final int C2 = 0x1b873593;
+
+    @Override public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
+        return mqs.get(indexFor(arg.toString(), mqs.size()));
+    }
+
+    public static int indexFor(String key, int size) {
+        return (hash(key) & Integer.MAX_VALUE) % size;
+    }
+
+    public static int hash(String key) {
+        int h = 0;
+        int length = key.length();
+        int i = 1;
+        for ( ; i < length; i += 2 ) {
+            int k = key.charAt(i - 1) | (key.charAt(i) << 16);
+            h = mixH(h, mixK(k));
+        }
+        if ( (length & 1) == 1 ) {
+            h ^= mixK(key.charAt(length - 1));
+        }
+        return fmix(h, 2 * length);
+    }
+
+    private static int mixK(int k) {
+        k *= C1;
+        k = Integer.rotateLeft(k, 15);
+        return k * C2;
+    }
+
+    private static int mixH(int h, int k) {
+        h ^= k;
+        h = Integer.rotateLeft(h, 13);
+        return h * 5 + 0xe6546b64;
+    }
+
+    private static int fmix(int h, int length) {
+        h ^= length;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
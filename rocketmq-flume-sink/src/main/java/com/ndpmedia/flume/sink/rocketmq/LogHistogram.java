@@ -0,0 +1,139 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LogHistogram Created with rocketmq-flume.
+ *
+ * A lock-free histogram of non-negative longs. Buckets are powers of two split into 8 linear
+ * sub-buckets, so any reported percentile is within 12.5% of the real value (values below 16
+ * are exact). Recording is one atomic increment on a stripe picked by thread id, which keeps
+ * concurrent callback threads off each other's cache lines.
+ */
+public class LogHistogram {
+
+    private static final int SUB_BITS = 3;
+
+    private static final int SUB = 1 << SUB_BITS;
+
+    static final int BUCKETS = 64 * SUB;
+
+    private final AtomicLongArray[] stripes;
+
+    private final AtomicLong max = new AtomicLong();
+
+    public LogHistogram(int stripeCount) {
+        stripes = new AtomicLongArray[Math.max(1, stripeCount)];
+        for ( int i = 0; i < stripes.length; i++ ) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(long value) {
+        if ( value < 0 ) {
+            value = 0;
+        }
+        int stripe = (int) (Thread.currentThread().getId() % stripes.length);
+        stripes[stripe].incrementAndGet(indexOf(value));
+        long current = max.get();
+        while ( value > current && !max.compareAndSet(current, value) ) {
+            current = max.get();
+        }
+    }
+
+    public void reset() {
+        for ( AtomicLongArray stripe : stripes ) {
+            for ( int i = 0; i < BUCKETS; i++ ) {
+                stripe.set(i, 0);
+            }
+        }
+        max.set(0);
+    }
+
+    /**
+     * Add this histogram's counts into the snapshot.
+     */
+    void addTo(Snapshot snapshot) {
+        for ( AtomicLongArray stripe : stripes ) {
+            for ( int i = 0; i < BUCKETS; i++ ) {
+                long n = stripe.get(i);
+                if ( n != 0 ) {
+                    snapshot.counts[i] += n;
+                    snapshot.count += n;
+                }
+            }
+        }
+        snapshot.max = Math.max(snapshot.max, max.get());
+    }
+
+    public Snapshot snapshot() {
+        Snapshot snapshot = new Snapshot();
+        addTo(snapshot);
+        return snapshot;
+    }
+
+    static int indexOf(long value) {
+        if ( value < SUB ) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int mantissa = (int) ((value >>> (exp - SUB_BITS)) & (SUB - 1));
+        return (exp - SUB_BITS + 1) * SUB + mantissa;
+    }
+
+    /**
+     * The largest value that falls into the bucket.
+     */
+    static long highestOf(int index) {
+        if ( index < SUB ) {
+            return index;
+        }
+        int exp = index / SUB + SUB_BITS - 1;
+        long mantissa = index % SUB;
+        long lowest = (1L << exp) | (mantissa << (exp - SUB_BITS));
+        return lowest + (1L << (exp - SUB_BITS)) - 1;
+    }
+
+    public static class Snapshot {
+
+        final long[] counts = new long[BUCKETS];
+
+        long count;
+
+        long max;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param quantile in (0, 1], e.g. 0.999
+         */
+        public long getValueAt(double quantile) {
+            if ( count == 0 ) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            if ( rank < 1 ) {
+                rank = 1;
+            }
+            long seen = 0;
+            for ( int i = 0; i < BUCKETS; i++ ) {
+                seen += counts[i];
+                if ( seen >= rank ) {
+                    return Math.min(highestOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        @Override public String toString() {
+            return "p50=" + getValueAt(0.5) + ",p99=" + getValueAt(0.99) + ",p999=" + getValueAt(0.999) + ",max=" + max;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageConst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * MessageChunker Created with rocketmq-flume.
+ *
+ * Splits a message whose body is over chunkSize into chunks carrying the same topic, tags and
+ * user properties plus a group id, their index and the chunk count. The sink routes all chunks
+ * of a group to one queue by the group id and RocketMQSource puts them back together.
+ */
+public class MessageChunker {
+
+    private final int chunkSize;
+
+    public MessageChunker(int chunkSize) {
+        if ( chunkSize <= 0 ) {
+            throw new IllegalArgumentException("chunkSize should be greater than 0");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean needsSplit(Message message) {
+        return message.getBody().length > chunkSize;
+    }
+
+    public List<Message> split(Message message) {
+        byte[] body = message.getBody();
+        if ( body.length <= chunkSize ) {
+            return Collections.singletonList(message);
+        }
+        int count = (body.length + chunkSize - 1) / chunkSize;
+        String group = UUID.randomUUID().toString();
+        List<Message> chunks = new ArrayList<Message>(count);
+        for ( int i = 0; i < count; i++ ) {
+            Message chunk = new Message(message.getTopic(), message.getTags(),
+                    Arrays.copyOfRange(body, i * chunkSize, Math.min(body.length, (i + 1) * chunkSize)));
+            for ( Map.Entry<String, String> entry : message.getProperties().entrySet() ) {
+                if ( !MessageConst.systemKeySet.contains(entry.getKey()) ) {
+                    chunk.putUserProperty(entry.getKey(), entry.getValue());
+                }
+            }
+            chunk.putUserProperty(RocketMQSinkConstant.CHUNK_GROUP_PROPERTY, group);
+            chunk.putUserProperty(RocketMQSinkConstant.CHUNK_INDEX_PROPERTY, String.valueOf(i));
+            chunk.putUserProperty(RocketMQSinkConstant.CHUNK_COUNT_PROPERTY, String.valueOf(count));
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,73 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PendingSends Created with rocketmq-flume.
+ *
+ * Tracks the asynchronous sends issued for one channel transaction. The transaction
+ * may only be committed once every registered send has completed and none failed.
+ *
+ * The counter starts at one on behalf of the issuing thread, so the latch cannot open
+ * before {@link #seal()} is called, no matter how fast the callbacks come back.
+ */
+public class PendingSends {
+
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+    private volatile boolean abandoned;
+
+    public void register() {
+        pending.incrementAndGet();
+    }
+
+    public void complete() {
+        if ( pending.decrementAndGet() == 0 ) {
+            done.countDown();
+        }
+    }
+
+    public void fail(Throwable cause) {
+        failure.compareAndSet(null, cause);
+        complete();
+    }
+
+    /**
+     * The issuing thread gave up waiting: mark the batch failed so that sends still in flight or
+     * waiting for a retry stop, without completing on behalf of any of them.
+     */
+    public void abandon(Throwable cause) {
+        failure.compareAndSet(null, cause);
+        abandoned = true;
+    }
+
+    /**
+     * No more sends will be registered.
+     */
+    public void seal() {
+        complete();
+    }
+
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isAbandoned() {
+        return abandoned;
+    }
+
+    public boolean isFailed() {
+        return failure.get() != null;
+    }
+
+    public Throwable getFailure() {
+        return failure.get();
+    }
+}
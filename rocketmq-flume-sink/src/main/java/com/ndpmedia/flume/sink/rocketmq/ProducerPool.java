@@ -0,0 +1,112 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.MQProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ProducerPool Created with rocketmq-flume.
+ *
+ * N producers with distinct instance names, so each one gets its own client instance and its own
+ * connections to the brokers. Every batch is sent through one member, chosen round-robin or by
+ * the fewest sends in flight.
+ */
+public class ProducerPool {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProducerPool.class);
+
+    public static final String ROUND_ROBIN = "roundRobin";
+
+    public static final String LEAST_IN_FLIGHT = "leastInFlight";
+
+    public static class Member {
+
+        private final MQProducer producer;
+
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        Member(MQProducer producer) {
+            this.producer = producer;
+        }
+
+        public MQProducer getProducer() {
+            return producer;
+        }
+
+        public void acquire() {
+            inFlight.incrementAndGet();
+        }
+
+        public void release() {
+            inFlight.decrementAndGet();
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+    }
+
+    private final List<Member> members;
+
+    private final boolean leastInFlight;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    public ProducerPool(List<MQProducer> producers, String selector) {
+        if ( null == producers || producers.isEmpty() ) {
+            throw new IllegalArgumentException("producers should not be empty.");
+        }
+        if ( !ROUND_ROBIN.equals(selector) && !LEAST_IN_FLIGHT.equals(selector) ) {
+            throw new IllegalArgumentException("producerSelector should be " + ROUND_ROBIN + " or " + LEAST_IN_FLIGHT);
+        }
+        List<Member> list = new ArrayList<Member>(producers.size());
+        for ( MQProducer producer : producers ) {
+            list.add(new Member(producer));
+        }
+        this.members = Collections.unmodifiableList(list);
+        this.leastInFlight = LEAST_IN_FLIGHT.equals(selector);
+    }
+
+    public Member select() {
+        int size = members.size();
+        if ( size == 1 ) {
+            return members.get(0);
+        }
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % size;
+        if ( !leastInFlight ) {
+            return members.get(start);
+        }
+        // scan from a rotating start so ties are spread as well
+        Member best = members.get(start);
+        for ( int i = 1; i < size && best.getInFlight() > 0; i++ ) {
+            Member candidate = members.get((start + i) % size);
+            if ( candidate.getInFlight() < best.getInFlight() ) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    public void shutdown() {
+        for ( Member member : members ) {
+            try {
+                member.getProducer().shutdown();
+            } catch ( Exception e ) {
+                LOG.warn("shutdown producer failed", e);
+            }
+        }
+    }
+}
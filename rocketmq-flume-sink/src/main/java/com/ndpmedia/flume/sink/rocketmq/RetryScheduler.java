@@ -0,0 +1,139 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.SendStatus;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * RetryScheduler Created with rocketmq-flume.
+ *
+ * Re-issues failed asynchronous sends after an exponential backoff with jitter, on its own
+ * timer thread, so the client callback threads never block on a retry. Every failure class
+ * has its own retry budget and the number of queued retries is bounded; when either runs out
+ * the caller gives up on the message.
+ */
+public class RetryScheduler {
+
+    public enum FailureClass {
+        EXCEPTION, FLUSH_DISK_TIMEOUT, FLUSH_SLAVE_TIMEOUT, SLAVE_NOT_AVAILABLE;
+
+        public static FailureClass of(SendStatus status) {
+            switch ( status ) {
+            case FLUSH_DISK_TIMEOUT:
+                return FLUSH_DISK_TIMEOUT;
+            case FLUSH_SLAVE_TIMEOUT:
+                return FLUSH_SLAVE_TIMEOUT;
+            case SLAVE_NOT_AVAILABLE:
+                return SLAVE_NOT_AVAILABLE;
+            default:
+                return EXCEPTION;
+            }
+        }
+    }
+
+    public interface Retryable {
+        void retry();
+    }
+
+    private final Map<FailureClass, Integer> budgets;
+
+    private final int capacity;
+
+    private final long minBackoff;
+
+    private final long maxBackoff;
+
+    private final RocketMQSinkCounter counter;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final Random random = new Random();
+
+    private volatile ScheduledExecutorService timer;
+
+    public RetryScheduler(Map<FailureClass, Integer> budgets, int capacity, long minBackoff, long maxBackoff,
+                          RocketMQSinkCounter counter) {
+        this.budgets = new EnumMap<FailureClass, Integer>(budgets);
+        this.capacity = capacity;
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.counter = counter;
+    }
+
+    public void start(final String name) {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void stop() {
+        ScheduledExecutorService t = timer;
+        if ( null != t ) {
+            t.shutdownNow();
+        }
+    }
+
+    /**
+     * Schedule the attempt-th retry of a send that failed with the given class.
+     *
+     * @return false when the budget of that class is used up or the retry queue is full, the
+     * caller then owns the outcome of the send.
+     */
+    public boolean schedule(final Retryable task, FailureClass failure, int attempt) {
+        Integer budget = budgets.get(failure);
+        if ( null == budget || attempt > budget ) {
+            counter.incrementSendGiveUpCount();
+            return false;
+        }
+        if ( queued.incrementAndGet() > capacity ) {
+            queued.decrementAndGet();
+            counter.incrementSendGiveUpCount();
+            return false;
+        }
+        counter.addToRetryQueueDepth(1);
+        try {
+            timer.schedule(new Runnable() {
+                @Override public void run() {
+                    queued.decrementAndGet();
+                    counter.addToRetryQueueDepth(-1);
+                    counter.incrementSendRetryCount();
+                    task.retry();
+                }
+            }, backoff(attempt), TimeUnit.MILLISECONDS);
+        } catch ( RejectedExecutionException e ) {
+            queued.decrementAndGet();
+            counter.addToRetryQueueDepth(-1);
+            counter.incrementSendGiveUpCount();
+            return false;
+        }
+        return true;
+    }
+
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /**
+     * min * 2^(attempt-1) capped at max, of which the upper half is randomized.
+     */
+    long backoff(int attempt) {
+        long exp = minBackoff << Math.min(Math.max(attempt - 1, 0), 20);
+        if ( exp <= 0 || exp > maxBackoff ) {
+            exp = maxBackoff;
+        }
+        long half = exp / 2;
+        return half + (long) (random.nextDouble() * (exp - half + 1));
+    }
+}
@@ -1,18 +1,28 @@
 package com.ndpmedia.flume.sink.rocketmq;
 
 import com.alibaba.rocketmq.client.exception.MQClientException;
-import com.alibaba.rocketmq.client.producer.MQProducer;
 import com.alibaba.rocketmq.client.producer.SendCallback;
 import com.alibaba.rocketmq.client.producer.SendResult;
 import com.alibaba.rocketmq.client.producer.SendStatus;
 import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.google.common.base.Preconditions;
 import org.apache.flume.*;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.sink.AbstractSink;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * RocketMQSink Created with rocketmq-flume.
@@ -25,113 +35,341 @@ public class RocketMQSink extends AbstractSink implements Configurable {
 
     private static final Logger LOG = LoggerFactory.getLogger(RocketMQSink.class);
 
-    private String topic;
+    private HeaderTemplate topic;//支持${header}模板
 
-    private String tag;
+    private String fallbackTopic;//模板topic缺少header或不合法时改发的topic, 不配置则丢弃该event
 
-    private MQProducer producer;
+    private HeaderTemplate tag;
 
-    private String allow;
+    private ProducerPool producers;
 
-    private String deny;
+    private EventFilter filter;
 
     private String extra;
 
     private boolean asyn = true;//是否异步发送
 
+    private BatchSizer batchSizer;//每个事务最多从channel取出的event数, adaptiveBatchSize时按发送延迟调整
+
+    private TokenBucket eventLimiter;//每秒最多发送的消息数
+
+    private TokenBucket byteLimiter;//每秒最多发送的消息体字节数
+
+    private InFlightWindow window;//异步发送未回调的消息数上限
+
+    private long asynTimeout;//等待异步发送回调的超时时间
+
+    private RocketMQSinkCounter counter;
+
+    private SendStats sendStats;//发送延迟及消息大小的滑动窗口统计
+
+    private RetryScheduler retryScheduler;//异步发送失败的重试
+
+    private BodyCodec codec;//消息体压缩方式
+
+    private int compressionMinSize;//body不小于该值才压缩
+
+    private String partitionKeyHeader;//按该header的hash选择queue
+
+    private boolean ordered;//每个queue同时最多一条消息在发送, 保证同一key的顺序
+
+    private MessageChunker chunker;//超过chunkSize的消息体拆分发送
+
+    private boolean binaryHeaders;//event headers编码在消息体前部, 而不是逐个放入消息属性
+
+    private int packMaxEvents;//>1时多个event打包为一条消息
+
+    private int packMaxBytes;
+
+    private TopicRouteCache routeCache;
+
+    private final KeyHashQueueSelector keyHashSelector = new KeyHashQueueSelector();
+
+    private BrokerCircuitBreaker breaker;//按broker统计延迟及错误率, 超出阈值时避开该broker的queue
+
+    private final AtomicInteger queueSequence = new AtomicInteger();
+
+    private SpillJournal journal;//发送失败时暂存消息的本地journal
+
+    private SpillReplayer replayer;
+
+    private final Map<String, Integer> spilledKeys = new HashMap<String, Integer>();//ordered时journal中各key的消息数
+
+    private boolean spilledKeysUnknown;//重启时journal中已有积压, 回放完之前所有key都排在积压之后
+
+    private final Map<MessageQueue, List<RoutedMessage>> heldLanes = new LinkedHashMap<MessageQueue, List<RoutedMessage>>();//ordered且没有journal时失败queue未发送的消息
+
+    private int heldCount;
+
+    private int workerCount;//并发从channel取数据发送的线程数, 包括SinkRunner线程
+
+    private final List<Thread> workers = new ArrayList<Thread>();
+
+    private volatile boolean running;
+
     @Override public void configure(Context context) {
+        if ( null == counter ) {
+            counter = new RocketMQSinkCounter(getName());
+        }
+
         // 获取配置项
-        topic = context.getString(RocketMQSinkConstant.TOPIC, RocketMQSinkConstant.DEFAULT_TOPIC);
-        tag = context.getString(RocketMQSinkConstant.TAG, RocketMQSinkConstant.DEFAULT_TAG);
+        String topic = context.getString(RocketMQSinkConstant.TOPIC, RocketMQSinkConstant.DEFAULT_TOPIC);
+        String tag = context.getString(RocketMQSinkConstant.TAG, RocketMQSinkConstant.DEFAULT_TAG);
+        this.topic = HeaderTemplate.compile(topic);
+        this.tag = HeaderTemplate.compile(tag);
+        fallbackTopic = context.getString(RocketMQSinkConstant.FALLBACK_TOPIC, null);
+        Preconditions.checkArgument(null == fallbackTopic || HeaderTemplate.isValidTopic(fallbackTopic), "invalid fallbackTopic");
         // 初始化Producer
-        producer = RocketMQSinkUtil.getProducerInstance(context);
+        producers = RocketMQSinkUtil.getProducerPool(context, getName());
 
-        allow = context.getString(RocketMQSinkConstant.ALLOW, null);
-        deny = context.getString(RocketMQSinkConstant.DENY, null);
+        String allow = context.getString(RocketMQSinkConstant.ALLOW, null);
+        String deny = context.getString(RocketMQSinkConstant.DENY, null);
+        String filterMode = context.getString(RocketMQSinkConstant.FILTER_MODE, RocketMQSinkConstant.FILTER_MODE_REGEX);
+        Preconditions.checkArgument(RocketMQSinkConstant.FILTER_MODE_REGEX.equals(filterMode) || RocketMQSinkConstant.FILTER_MODE_BYTES.equals(filterMode),
+                "filterMode must be regex or bytes");
+        filter = new EventFilter(allow, deny, RocketMQSinkConstant.FILTER_MODE_BYTES.equals(filterMode));
         extra = context.getString(RocketMQSinkConstant.EXTRA,null);
 
         asyn = context.getBoolean(RocketMQSinkConstant.ASYN, true);
 
+        int batchSize = context.getInteger(RocketMQSinkConstant.BATCH_SIZE, RocketMQSinkConstant.DEFAULT_BATCH_SIZE);
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than 0");
+        if ( context.getBoolean(RocketMQSinkConstant.ADAPTIVE_BATCH_SIZE, false) ) {
+            batchSizer = new BatchSizer(context.getInteger(RocketMQSinkConstant.BATCH_SIZE_MIN, Math.min(batchSize, RocketMQSinkConstant.DEFAULT_BATCH_SIZE_MIN)),
+                    context.getInteger(RocketMQSinkConstant.BATCH_SIZE_MAX, Math.max(batchSize, RocketMQSinkConstant.DEFAULT_BATCH_SIZE_MAX)),
+                    batchSize,
+                    context.getLong(RocketMQSinkConstant.TARGET_SEND_LATENCY, RocketMQSinkConstant.DEFAULT_TARGET_SEND_LATENCY),
+                    context.getInteger(RocketMQSinkConstant.BATCH_SIZE_INCREMENT, RocketMQSinkConstant.DEFAULT_BATCH_SIZE_INCREMENT),
+                    Double.parseDouble(context.getString(RocketMQSinkConstant.BATCH_SIZE_DECREASE_FACTOR,
+                            String.valueOf(RocketMQSinkConstant.DEFAULT_BATCH_SIZE_DECREASE_FACTOR))));
+        } else {
+            batchSizer = BatchSizer.fixed(batchSize);
+        }
+        counter.setBatchSizer(batchSizer);
+        codec = BodyCodec.of(context.getString(RocketMQSinkConstant.COMPRESSION));
+        compressionMinSize = context.getInteger(RocketMQSinkConstant.COMPRESSION_MIN_SIZE, RocketMQSinkConstant.DEFAULT_COMPRESSION_MIN_SIZE);
+        partitionKeyHeader = context.getString(RocketMQSinkConstant.PARTITION_KEY_HEADER, null);
+        ordered = context.getBoolean(RocketMQSinkConstant.ORDERED, false);
+        Preconditions.checkArgument(!ordered || null != partitionKeyHeader, "ordered requires partitionKeyHeader");
+        String headerEncoding = context.getString(RocketMQSinkConstant.HEADER_ENCODING, RocketMQSinkConstant.HEADER_ENCODING_PROPERTIES);
+        Preconditions.checkArgument(RocketMQSinkConstant.HEADER_ENCODING_PROPERTIES.equals(headerEncoding)
+                || RocketMQSinkConstant.HEADER_ENCODING_BINARY.equals(headerEncoding), "headerEncoding must be properties or binary");
+        binaryHeaders = RocketMQSinkConstant.HEADER_ENCODING_BINARY.equals(headerEncoding);
+        packMaxEvents = context.getInteger(RocketMQSinkConstant.PACK_MAX_EVENTS, 1);
+        packMaxBytes = context.getInteger(RocketMQSinkConstant.PACK_MAX_BYTES, RocketMQSinkConstant.DEFAULT_PACK_MAX_BYTES);
+        Preconditions.checkArgument(packMaxEvents > 0 && packMaxBytes > 0, "packMaxEvents and packMaxBytes must be greater than 0");
+        int chunkSize = context.getInteger(RocketMQSinkConstant.CHUNK_SIZE, 0);
+        chunker = chunkSize > 0 ? new MessageChunker(chunkSize) : null;
+        int maxDestinations = context.getInteger(RocketMQSinkConstant.MAX_DESTINATIONS, RocketMQSinkConstant.DEFAULT_MAX_DESTINATIONS);
+        routeCache = new TopicRouteCache(producers.getMembers().get(0).getProducer(),
+                context.getLong(RocketMQSinkConstant.ROUTE_REFRESH_INTERVAL, RocketMQSinkConstant.DEFAULT_ROUTE_REFRESH_INTERVAL),
+                maxDestinations);
+        if ( context.getBoolean(RocketMQSinkConstant.CIRCUIT_BREAKER, false) ) {
+            breaker = new BrokerCircuitBreaker(
+                    context.getLong(RocketMQSinkConstant.CIRCUIT_BREAKER_LATENCY, RocketMQSinkConstant.DEFAULT_CIRCUIT_BREAKER_LATENCY),
+                    Double.parseDouble(context.getString(RocketMQSinkConstant.CIRCUIT_BREAKER_ERROR_RATE,
+                            String.valueOf(RocketMQSinkConstant.DEFAULT_CIRCUIT_BREAKER_ERROR_RATE))),
+                    context.getLong(RocketMQSinkConstant.CIRCUIT_BREAKER_OPEN_TIME, RocketMQSinkConstant.DEFAULT_CIRCUIT_BREAKER_OPEN_TIME),
+                    context.getInteger(RocketMQSinkConstant.CIRCUIT_BREAKER_PROBES, RocketMQSinkConstant.DEFAULT_CIRCUIT_BREAKER_PROBES),
+                    counter);
+        } else {
+            breaker = null;
+        }
+        counter.setCircuitBreaker(breaker);
+        sendStats = new SendStats(context.getLong(RocketMQSinkConstant.HISTOGRAM_WINDOW, RocketMQSinkConstant.DEFAULT_HISTOGRAM_WINDOW), maxDestinations);
+        counter.setSendStats(sendStats);
+        workerCount = context.getInteger(RocketMQSinkConstant.WORKER_COUNT, RocketMQSinkConstant.DEFAULT_WORKER_COUNT);
+        Preconditions.checkArgument(workerCount > 0, "workerCount must be greater than 0");
+        if ( ordered && workerCount > 1 ) {
+            // 多个事务并发时同一key的event会乱序
+            LOG.warn("RocketMQSink ordered, workerCount {} is ignored", workerCount);
+            workerCount = 1;
+        }
+        counter.setWorkerCount(workerCount);
+
+        long burst = context.getLong(RocketMQSinkConstant.RATE_LIMIT_BURST, RocketMQSinkConstant.DEFAULT_RATE_LIMIT_BURST);
+        long maxEvents = context.getLong(RocketMQSinkConstant.MAX_EVENTS_PER_SECOND, 0L);
+        long maxBytes = context.getLong(RocketMQSinkConstant.MAX_BYTES_PER_SECOND, 0L);
+        eventLimiter = maxEvents > 0 ? new TokenBucket(maxEvents, burst) : null;
+        byteLimiter = maxBytes > 0 ? new TokenBucket(maxBytes, burst) : null;
+
+        window = new InFlightWindow(context.getInteger(RocketMQSinkConstant.MAX_IN_FLIGHT, RocketMQSinkConstant.DEFAULT_MAX_IN_FLIGHT));
+        counter.setInFlightWindow(window);
+        asynTimeout = context.getLong(RocketMQSinkConstant.ASYN_TIMEOUT, RocketMQSinkConstant.DEFAULT_ASYN_TIMEOUT);
+        retryScheduler = new RetryScheduler(retryBudgets(context),
+                context.getInteger(RocketMQSinkConstant.RETRY_QUEUE_SIZE, RocketMQSinkConstant.DEFAULT_RETRY_QUEUE_SIZE),
+                context.getLong(RocketMQSinkConstant.RETRY_BACKOFF_MIN, RocketMQSinkConstant.DEFAULT_RETRY_BACKOFF_MIN),
+                context.getLong(RocketMQSinkConstant.RETRY_BACKOFF_MAX, RocketMQSinkConstant.DEFAULT_RETRY_BACKOFF_MAX),
+                counter);
+
+        String spillDir = context.getString(RocketMQSinkConstant.SPILL_DIR, null);
+        if ( null != spillDir && spillDir.trim().length() > 0 ) {
+            journal = new SpillJournal(new File(spillDir.trim()),
+                    context.getInteger(RocketMQSinkConstant.SPILL_SEGMENT_SIZE, RocketMQSinkConstant.DEFAULT_SPILL_SEGMENT_SIZE),
+                    context.getInteger(RocketMQSinkConstant.SPILL_MAX_SEGMENTS, RocketMQSinkConstant.DEFAULT_SPILL_MAX_SEGMENTS));
+            replayer = new SpillReplayer(journal, new SpillReplayer.Sender() {
+                @Override public void send(Message message) throws Exception {
+                    replay(message);
+                }
+            }, context.getInteger(RocketMQSinkConstant.SPILL_REPLAY_RATE, RocketMQSinkConstant.DEFAULT_SPILL_REPLAY_RATE),
+                    context.getLong(RocketMQSinkConstant.RETRY_BACKOFF_MAX, RocketMQSinkConstant.DEFAULT_RETRY_BACKOFF_MAX), counter);
+        } else {
+            journal = null;
+            replayer = null;
+        }
+
         if ( LOG.isInfoEnabled() ) {
-            LOG.info("RocketMQSource configure success, topic={},tag={},allow={},deny={},extra={}, asyn={}", topic, tag, allow, deny, extra, asyn);
+            LOG.info("RocketMQSink configure success, topic={},tag={},allow={},deny={},filterMode={},extra={}, asyn={}, batchSize={}~{}, maxInFlight={}, producerCount={}, workerCount={}, compression={}, partitionKeyHeader={}, ordered={}, headerEncoding={}, packMaxEvents={}, chunkSize={}, circuitBreaker={}, spillDir={}, maxEventsPerSecond={}, maxBytesPerSecond={}", topic, tag, allow, deny, filterMode, extra, asyn, batchSizer.getMin(), batchSizer.getMax(), window.getCapacity(), producers.size(), workerCount, codec, partitionKeyHeader, ordered, headerEncoding, packMaxEvents, chunkSize, null != breaker, spillDir, maxEvents, maxBytes);
         }
 
     }
 
+    /**
+     * retryBudget.EXCEPTION, retryBudget.FLUSH_DISK_TIMEOUT ... A send that is not SEND_OK is
+     * already stored on the master, so those classes are not retried unless configured.
+     */
+    private static Map<RetryScheduler.FailureClass, Integer> retryBudgets(Context context) {
+        Map<RetryScheduler.FailureClass, Integer> budgets = new EnumMap<RetryScheduler.FailureClass, Integer>(RetryScheduler.FailureClass.class);
+        for ( RetryScheduler.FailureClass failure : RetryScheduler.FailureClass.values() ) {
+            budgets.put(failure, failure == RetryScheduler.FailureClass.EXCEPTION ?
+                    RocketMQSinkConstant.DEFAULT_RETRY_BUDGET_EXCEPTION : RocketMQSinkConstant.DEFAULT_RETRY_BUDGET_STATUS);
+        }
+        for ( Map.Entry<String, String> entry : context.getSubProperties(RocketMQSinkConstant.RETRY_BUDGET_PREFIX).entrySet() ) {
+            budgets.put(RetryScheduler.FailureClass.valueOf(entry.getKey().trim()), Integer.parseInt(entry.getValue().trim()));
+        }
+        return budgets;
+    }
+
+    /**
+     * The max number of events taken from the channel in one transaction, the upper bound when
+     * the size is adaptive.
+     */
+    public long getBatchSize() {
+        return batchSizer.getMax();
+    }
+
     @Override public Status process() throws EventDeliveryException {
+        return drain(0);
+    }
+
+    /**
+     * One take/convert/send/commit round. Channel transactions are bound to the calling thread,
+     * so every worker runs its own.
+     */
+    private Status drain(int worker) {
+        int limit = batchSizer.current();
+        int allowed = limit;
+        if ( null != eventLimiter ) {
+            allowed = (int) eventLimiter.available(limit);
+        }
+        if ( allowed == 0 || (null != byteLimiter && byteLimiter.available(1) == 0) ) {
+            // 超出限速, 不阻塞线程, 由SinkRunner退避
+            counter.incrementThrottledCount();
+            counter.addToThrottledTime(throttledMillis());
+            return Status.BACKOFF;
+        }
         Channel channel = getChannel();
         Transaction tx = channel.getTransaction();
         try {
             tx.begin();
-            Event event = channel.take();
-            if ( event == null || event.getBody() == null || event.getBody().length == 0 ) {
-                tx.commit();
-                return Status.READY;
-            }
-
-            if ( null != deny && deny.trim().length() > 0 ) {
-                String msg = new String(event.getBody(), "UTF-8");
-                if ( msg.matches(deny) ) {
-                    tx.commit();
-                    msg = null;
-                    return Status.READY;
+            Map<String, List<RoutedMessage>> destinations = new LinkedHashMap<String, List<RoutedMessage>>();
+            Map<String, EventEnvelope> envelopes = packMaxEvents > 1 ? new LinkedHashMap<String, EventEnvelope>() : null;
+            int taken = 0;
+            int accepted = 0;
+            long bytes = 0;
+            for ( ; taken < allowed; taken++ ) {
+                Event event = channel.take();
+                if ( event == null ) {
+                    break;
                 }
-            }
-
-            if ( null != allow && allow.trim().length() > 0 ) {
-                String msg = new String(event.getBody(), "UTF-8");
-                if ( !msg.matches(allow) ) {
-                    tx.commit();
-                    msg = null;
-                    return Status.READY;
+                if ( event.getBody() == null || event.getBody().length == 0 ) {
+                    continue;
+                }
+                if ( !accept(event) ) {
+                    continue;
+                }
+                String destTopic = topicOf(event);
+                if ( null == destTopic ) {
+                    continue;
+                }
+                accepted++;
+                if ( null != envelopes ) {
+                    bytes += pack(envelopes, destinations, event, destTopic);
+                } else {
+                    bytes += addMessage(destinations, toMessage(event, destTopic), partitionKey(event));
                 }
             }
-
-            // 发送消息
-
-            final Message msg = new Message(topic, tag, event.getBody());
-            if (null != event.getHeaders() && event.getHeaders().size() > 0 ){
-                for ( Map.Entry<String,String> entry : event.getHeaders().entrySet() ){
-                    msg.putUserProperty(entry.getKey(),entry.getValue());
+            if ( null != envelopes ) {
+                for ( EventEnvelope envelope : envelopes.values() ) {
+                    if ( !envelope.isEmpty() ) {
+                        bytes += addMessage(destinations, toMessage(envelope), envelope.getKey());
+                    }
                 }
             }
-            if ( null != extra && extra.length() > 0 ){
-                msg.putUserProperty("extra",extra);
+            counter.addToEventDrainAttemptCount(taken);
+            if ( taken == 0 ) {
+                counter.incrementBatchEmptyCount();
+            } else if ( taken < limit ) {
+                counter.incrementBatchUnderflowCount();
+            } else {
+                counter.incrementBatchCompleteCount();
+            }
+            if ( allowed < limit && taken == allowed ) {
+                counter.addToThrottledEventCount(limit - allowed);
+            }
+            List<RoutedMessage> messages = route(destinations);
+            if ( null != eventLimiter ) {
+                eventLimiter.consume(accepted);
+            }
+            if ( null != byteLimiter ) {
+                byteLimiter.consume(bytes);
             }
 
-            if ( asyn ) {
-                producer.send(msg, new SendCallback() {
-
-                    @Override public void onSuccess(SendResult sendResult) {
-                        LOG.debug("send success msg:{},result:{}",msg,sendResult);
-                    }
-
-                    @Override public void onException(Throwable e) {
-                        LOG.error("send exception->", e);
-                        SendResult result = null;
-                        try {
-                            result = producer.send(msg);//异步发送失败，会再同步发送一次
-                            if ( null == result || result.getSendStatus() != SendStatus.SEND_OK ) {
-                                LOG.warn("sync send msg fail:sendResult={}", result);
-                            }
-                        } catch ( Exception e1 ) {
-                            LOG.error("asyn send msg retry fail: sendResult=" + result, e);
+            List<RoutedMessage> live = new ArrayList<RoutedMessage>(messages.size());
+            // 写入journal的event数, 回放成功后才计入EventDrainSuccessCount
+            int spilled = spill(heldBySpill(messages, live));
+            int deferred = 0;//留在内存中等待重发的event数的变化
+            if ( ordered && null == journal ) {
+                long start = System.nanoTime();
+                try {
+                    deferred = sendLanes(live);
+                    batchSizer.onBatch(limit, taken, (System.nanoTime() - start) / 1000, false);
+                } catch ( Exception e ) {
+                    batchSizer.onBatch(limit, taken, (System.nanoTime() - start) / 1000, true);
+                    throw e;
+                }
+            } else if ( !live.isEmpty() ) {
+                long start = System.nanoTime();
+                try {
+                    if ( ordered ) {
+                        List<RoutedMessage> unsent = sendOrdered(producers.select(), live);
+                        if ( !unsent.isEmpty() ) {
+                            throw new EventDeliveryException(unsent.size() + " messages of failed queue lanes not sent");
                         }
+                    } else {
+                        send(live);
                     }
-                });
-            } else {
-                SendResult sendResult = producer.send(msg); //默认失败会重试
-                LOG.debug("sendResult->{}", sendResult);
-                if ( null == sendResult || sendResult.getSendStatus() != SendStatus.SEND_OK ) {
-                    LOG.warn("sync send msg fail:sendResult={}", sendResult);
+                    batchSizer.onBatch(limit, taken, (System.nanoTime() - start) / 1000, false);
+                } catch ( Exception e ) {
+                    batchSizer.onBatch(limit, taken, (System.nanoTime() - start) / 1000, true);
+                    // broker已确认的消息不再写入journal, 避免回放时重复发送
+                    List<RoutedMessage> unacknowledged = unacknowledged(live);
+                    if ( null == journal || unacknowledged.isEmpty() ) {
+                        throw e;
+                    }
+                    LOG.warn("RocketMQSink send failed, spill {} messages: {}", unacknowledged.size(), e.toString());
+                    spilled += spill(unacknowledged);
                 }
             }
             tx.commit();
-            return Status.READY;
+            counter.addToEventDrainSuccessCount(accepted - spilled - deferred);
+            counter.addToWorkerCommitted(worker, accepted);
+            return taken == 0 ? Status.BACKOFF : Status.READY;
         } catch ( Exception e ) {
             LOG.error("RocketMQSink send message exception", e);
             try {
                 tx.rollback();
+                counter.incrementRollbackCount();
                 return Status.BACKOFF;
             } catch ( Exception e2 ) {
                 LOG.error("Rollback exception", e2);
@@ -142,23 +380,873 @@ public class RocketMQSink extends AbstractSink implements Configurable {
         }
     }
 
-    @Override
-    public synchronized void start() {
+    private long throttledMillis() {
+        long nanos = 0;
+        if ( null != eventLimiter ) {
+            nanos = eventLimiter.claimThrottledNanos();
+        }
+        if ( null != byteLimiter ) {
+            nanos = Math.max(nanos, byteLimiter.claimThrottledNanos());
+        }
+        return nanos / 1000000L;
+    }
+
+    private void send(List<RoutedMessage> messages) throws Exception {
+        // 发送消息, 整个批次使用同一个producer
+        ProducerPool.Member producer = producers.select();
+        if ( asyn ) {
+            sendAsyn(producer, messages);
+        } else {
+            for ( RoutedMessage msg : messages ) {
+                sendSync(producer, msg);
+            }
+        }
+    }
+
+    /**
+     * Split the batch into the messages to spill without trying the broker and the ones to send.
+     * Everything is held while the replayer is failing; once a replayed message has gone through,
+     * only the ordered keys that still have messages in the journal are held, so the live batches
+     * are not throttled to the replay rate.
+     *
+     * @return the held messages
+     */
+    private List<RoutedMessage> heldBySpill(List<RoutedMessage> messages, List<RoutedMessage> live) {
+        if ( null == journal ) {
+            live.addAll(messages);
+            return Collections.emptyList();
+        }
+        if ( replayer.isFailing() ) {
+            return messages;
+        }
+        if ( !ordered ) {
+            live.addAll(messages);
+            return Collections.emptyList();
+        }
+        List<RoutedMessage> held = new ArrayList<RoutedMessage>();
+        synchronized ( spilledKeys ) {
+            if ( spilledKeysUnknown && journal.isEmpty() ) {
+                spilledKeysUnknown = false;
+            }
+            for ( RoutedMessage msg : messages ) {
+                if ( null != msg.getKey() && (spilledKeysUnknown || spilledKeys.containsKey(msg.getKey())) ) {
+                    held.add(msg);
+                } else {
+                    live.add(msg);
+                }
+            }
+        }
+        return held;
+    }
+
+    private static List<RoutedMessage> unacknowledged(List<RoutedMessage> messages) {
+        List<RoutedMessage> result = new ArrayList<RoutedMessage>();
+        for ( RoutedMessage msg : messages ) {
+            if ( !msg.isAcknowledged() ) {
+                result.add(msg);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of events in the spilled messages
+     */
+    private int spill(List<RoutedMessage> messages) throws Exception {
+        if ( messages.isEmpty() ) {
+            return 0;
+        }
+        List<Message> list = new ArrayList<Message>(messages.size());
+        int events = 0;
+        for ( RoutedMessage msg : messages ) {
+            list.add(msg.getMessage());
+            events += eventsOf(msg.getMessage());
+        }
+        if ( !journal.append(list) ) {
+            throw new EventDeliveryException("Spill journal is full, pending bytes=" + journal.getPendingBytes());
+        }
+        if ( ordered ) {
+            synchronized ( spilledKeys ) {
+                for ( RoutedMessage msg : messages ) {
+                    if ( null != msg.getKey() ) {
+                        Integer count = spilledKeys.get(msg.getKey());
+                        spilledKeys.put(msg.getKey(), null == count ? 1 : count + 1);
+                    }
+                }
+            }
+        }
+        replayer.markFailing();
+        counter.addToSpilledCount(list.size());
+        return events;
+    }
+
+    /**
+     * A replayed message of the key has gone through.
+     */
+    private void releaseSpilledKey(String key) {
+        if ( !ordered || null == key ) {
+            return;
+        }
+        synchronized ( spilledKeys ) {
+            Integer count = spilledKeys.get(key);
+            if ( null == count || count <= 1 ) {
+                spilledKeys.remove(key);
+            } else {
+                spilledKeys.put(key, count - 1);
+            }
+        }
+    }
+
+    /**
+     * Events carried by a message: the packed count, or one; a chunk other than the first carries
+     * none, so a chunked event is counted once.
+     */
+    private static int eventsOf(Message message) {
+        String index = message.getUserProperty(RocketMQSinkConstant.CHUNK_INDEX_PROPERTY);
+        if ( null != index && !"0".equals(index) ) {
+            return 0;
+        }
+        String pack = message.getUserProperty(RocketMQSinkConstant.PACK_PROPERTY);
+        if ( null == pack ) {
+            return 1;
+        }
         try {
-            LOG.warn("RocketMQSink start producer... ");
-            producer.start();
+            return Integer.parseInt(pack);
+        } catch ( NumberFormatException e ) {
+            return 1;
+        }
+    }
+
+    /**
+     * Send a message from the journal, routed again like a live one, by its partition key and
+     * around open brokers; the event headers are kept in the user properties. A reply other than
+     * SEND_OK keeps the message in the journal.
+     */
+    private void replay(Message message) throws Exception {
+        String key = null == partitionKeyHeader ? null : message.getUserProperty(partitionKeyHeader);
+        if ( null == key ) {
+            key = message.getUserProperty(RocketMQSinkConstant.CHUNK_GROUP_PROPERTY);
+        }
+        RoutedMessage msg = new RoutedMessage(message, key);
+        route(message.getTopic(), Collections.singletonList(msg));
+        SendResult sendResult = sendSync(producers.select(), msg);
+        if ( null == sendResult || sendResult.getSendStatus() != SendStatus.SEND_OK ) {
+            throw new EventDeliveryException("Replayed message not stored, sendResult=" + sendResult);
+        }
+        releaseSpilledKey(key);
+        counter.addToEventDrainSuccessCount(eventsOf(message));
+    }
+
+    private boolean accept(Event event) {
+        switch ( filter.filter(event.getBody()) ) {
+        case DENIED:
+            counter.incrementEventDeniedCount();
+            return false;
+        case NOT_ALLOWED:
+            counter.incrementEventNotAllowedCount();
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * The topic rendered from the event headers; when a header is missing or the result is not a
+     * valid topic the event goes to fallbackTopic, or is dropped without one, so a single bad event
+     * does not roll back every transaction.
+     *
+     * @return null to drop the event
+     */
+    private String topicOf(Event event) {
+        if ( topic.isConstant() ) {
+            return topic.render(null);
+        }
+        String destTopic = topic.renderStrict(event.getHeaders());
+        if ( HeaderTemplate.isValidTopic(destTopic) ) {
+            return destTopic;
+        }
+        counter.incrementEventInvalidTopicCount();
+        if ( null == fallbackTopic ) {
+            LOG.warn("Invalid topic {} rendered from headers {}, event dropped", destTopic, event.getHeaders());
+        } else {
+            LOG.debug("Invalid topic {} rendered from headers {}, sent to {}", destTopic, event.getHeaders(), fallbackTopic);
+        }
+        return fallbackTopic;
+    }
+
+    /**
+     * Add the event to the envelope of its topic, tag and partition key, turning the envelope
+     * into a message whenever it is full.
+     *
+     * @return the body bytes of the messages added to the destinations
+     */
+    private long pack(Map<String, EventEnvelope> envelopes, Map<String, List<RoutedMessage>> destinations, Event event, String destTopic) throws IOException {
+        Map<String, String> headers = event.getHeaders();
+        String destTag = tag.render(headers);
+        String key = partitionKey(event);
+        String slot = destTopic + '\n' + destTag + '\n' + (null == key ? "" : key);
+        EventEnvelope envelope = envelopes.get(slot);
+        if ( null == envelope ) {
+            envelope = new EventEnvelope(destTopic, destTag, key, packMaxEvents, packMaxBytes);
+            envelopes.put(slot, envelope);
+        }
+        long bytes = 0;
+        if ( !envelope.add(headers, event.getBody()) ) {
+            bytes += addMessage(destinations, toMessage(envelope), key);
+            envelope.reset();
+            envelope.add(headers, event.getBody());
+        }
+        if ( envelope.isFull() ) {
+            bytes += addMessage(destinations, toMessage(envelope), key);
+            envelope.reset();
+        }
+        return bytes;
+    }
+
+    /**
+     * Group the message by topic, split into chunks when it is too large.
+     *
+     * @return the body bytes added
+     */
+    private long addMessage(Map<String, List<RoutedMessage>> destinations, Message msg, String key) {
+        List<RoutedMessage> group = destinations.get(msg.getTopic());
+        if ( null == group ) {
+            group = new ArrayList<RoutedMessage>();
+            destinations.put(msg.getTopic(), group);
+        }
+        if ( null != chunker && chunker.needsSplit(msg) ) {
+            // 同一组的分片按key(没有则按组id)发往同一queue
+            for ( Message chunk : chunker.split(msg) ) {
+                group.add(new RoutedMessage(chunk, null != key ? key : chunk.getUserProperty(RocketMQSinkConstant.CHUNK_GROUP_PROPERTY)));
+            }
+        } else {
+            group.add(new RoutedMessage(msg, key));
+        }
+        return msg.getBody().length;
+    }
+
+    private Message toMessage(Event event, String destTopic) throws IOException {
+        Map<String, String> headers = event.getHeaders();
+        if ( !binaryHeaders ) {
+            return toMessage(destTopic, tag.render(headers), event.getBody(), headers);
+        }
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(RocketMQSinkConstant.HEADERS_PROPERTY, RocketMQSinkConstant.HEADER_ENCODING_BINARY);
+        String key = partitionKey(event);
+        if ( null != key ) {
+            properties.put(partitionKeyHeader, key);
+        }
+        return toMessage(destTopic, tag.render(headers), EventEnvelope.encode(headers, event.getBody()), properties);
+    }
+
+    /**
+     * The event headers are inside the envelope, the message only carries the envelope marker.
+     */
+    private Message toMessage(EventEnvelope envelope) throws IOException {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(RocketMQSinkConstant.PACK_PROPERTY, String.valueOf(envelope.getCount()));
+        if ( null != envelope.getKey() ) {
+            // 从journal回放时按key重新选择queue
+            properties.put(partitionKeyHeader, envelope.getKey());
+        }
+        return toMessage(envelope.getTopic(), envelope.getTag(), envelope.toByteArray(), properties);
+    }
+
+    private Message toMessage(String destTopic, String destTag, byte[] body, Map<String, String> properties) throws IOException {
+        BodyCodec applied = BodyCodec.NONE;
+        if ( codec != BodyCodec.NONE && body.length >= compressionMinSize ) {
+            byte[] compressed = codec.compress(body);
+            // 压缩后没有变小则发送原始内容
+            if ( compressed.length < body.length ) {
+                body = compressed;
+                applied = codec;
+            }
+        }
+        Message msg = new Message(destTopic, destTag, body);
+        if (null != properties && properties.size() > 0 ){
+            for ( Map.Entry<String,String> entry : properties.entrySet() ){
+                msg.putUserProperty(entry.getKey(),entry.getValue());
+            }
+        }
+        if ( null != extra && extra.length() > 0 ){
+            msg.putUserProperty("extra",extra);
+        }
+        if ( applied != BodyCodec.NONE ) {
+            msg.putUserProperty(RocketMQSinkConstant.CODEC_PROPERTY, applied.name());
+        }
+        return msg;
+    }
+
+    private String partitionKey(Event event) {
+        if ( null == partitionKeyHeader || null == event.getHeaders() ) {
+            return null;
+        }
+        return event.getHeaders().get(partitionKeyHeader);
+    }
+
+    /**
+     * Pick the queue of every keyed message by the hash of its partition key, looking the route up
+     * once per destination topic of the batch. Messages without a key are left to the producer's
+     * own queue selection, unless the circuit breaker is on: then they go round-robin over the
+     * queues of closed brokers, the first one of the batch possibly as a probe of an open broker,
+     * and keys are hashed over the closed brokers' queues only. Ordered keys always hash over the
+     * full route: a key whose broker is open waits in its lane, or in the journal, rather than
+     * moving to another queue ahead of its earlier messages. When the route lookup fails the
+     * messages are left to the producer, keys and chunk groups losing their queue, except in
+     * ordered mode where the batch fails instead.
+     */
+    private List<RoutedMessage> route(Map<String, List<RoutedMessage>> destinations) throws MQClientException {
+        if ( destinations.size() == 1 && null == partitionKeyHeader && null == breaker && null == chunker ) {
+            return destinations.values().iterator().next();
+        }
+        List<RoutedMessage> messages = new ArrayList<RoutedMessage>();
+        for ( Map.Entry<String, List<RoutedMessage>> destination : destinations.entrySet() ) {
+            route(destination.getKey(), destination.getValue());
+            messages.addAll(destination.getValue());
+        }
+        return messages;
+    }
+
+    private void route(String topic, List<RoutedMessage> messages) throws MQClientException {
+        List<MessageQueue> queues = null;
+        List<MessageQueue> all = null;
+        MessageQueue probe = null;
+        for ( RoutedMessage msg : messages ) {
+            if ( null == msg.getKey() && null == breaker && !ordered ) {
+                continue;
+            }
+            if ( null == queues ) {
+                try {
+                    queues = routeCache.getQueues(topic);
+                } catch ( MQClientException e ) {
+                    if ( ordered ) {
+                        throw e;
+                    }
+                    // topic还没有路由(如等待自动创建), 交给producer自己选择queue
+                    LOG.warn("route of {} not found, send without queue: {}", topic, e.toString());
+                    return;
+                }
+                all = queues;
+                if ( null != breaker ) {
+                    probe = breaker.probe(queues);
+                    queues = breaker.available(queues);
+                }
+            }
+            if ( null != msg.getKey() ) {
+                msg.setQueue(keyHashSelector.select(ordered ? all : queues, msg.getMessage(), msg.getKey()));
+            } else if ( null != probe ) {
+                // 发送时才占用探测名额
+                msg.setQueue(probe);
+                msg.setProbe(true);
+                probe = null;
+            } else {
+                msg.setQueue(nextQueue(queues));
+            }
+        }
+    }
+
+    private MessageQueue nextQueue(List<MessageQueue> queues) {
+        return queues.get((queueSequence.getAndIncrement() & Integer.MAX_VALUE) % queues.size());
+    }
+
+    /**
+     * Move a message about to be retried off a broker whose circuit has opened meanwhile.
+     */
+    private void rerouteIfOpen(RoutedMessage msg) {
+        if ( null == breaker || null == msg.getQueue() || breaker.isClosed(msg.getQueue().getBrokerName())
+                || (ordered && null != msg.getKey()) ) {
+            return;
+        }
+        try {
+            List<MessageQueue> queues = breaker.available(routeCache.getQueues(msg.getMessage().getTopic()));
+            msg.setQueue(null != msg.getKey() ? keyHashSelector.select(queues, msg.getMessage(), msg.getKey()) : nextQueue(queues));
         } catch ( MQClientException e ) {
-            LOG.error("RocketMQSink start producer failed", e);
+            LOG.warn("reroute {} failed: {}", msg, e.toString());
+        }
+    }
+
+    /**
+     * Take the probe permit of a probe message right before it is sent; without one the message
+     * is sent as an ordinary one, moved off the broker if it is not closed.
+     */
+    private void claimProbe(RoutedMessage msg) {
+        if ( !msg.isProbe() ) {
+            return;
+        }
+        if ( !breaker.tryProbe(msg.getQueue().getBrokerName()) ) {
+            msg.setProbe(false);
+            rerouteIfOpen(msg);
+        }
+    }
+
+    private void recordBroker(RoutedMessage msg, long start, boolean ok) {
+        if ( null != breaker && null != msg.getQueue() ) {
+            breaker.record(msg.getQueue().getBrokerName(), (System.nanoTime() - start) / 1000, ok, msg.isProbe());
+            // 重试不再算作探测
+            msg.setProbe(false);
+        }
+    }
+
+    /**
+     * Send the whole batch asynchronously and wait until every callback has fired, so the
+     * transaction is only committed once the broker has acknowledged all of it.
+     */
+    private void sendAsyn(ProducerPool.Member producer, List<RoutedMessage> messages) throws Exception {
+        PendingSends pending = new PendingSends();
+        try {
+            for ( RoutedMessage msg : messages ) {
+                if ( pending.isFailed() ) {
+                    break;
+                }
+                if ( !window.acquire(asynTimeout) ) {
+                    throw new EventDeliveryException("Timed out waiting for an in-flight slot, inFlight=" + window.getInFlight());
+                }
+                pending.register();
+                new WindowedSendCallback(producer, msg, pending).send();
+            }
+        } catch ( Exception e ) {
+            // 事务将回滚, 已排队的重试不再发送
+            pending.abandon(e);
+            throw e;
+        } finally {
+            pending.seal();
+        }
+
+        if ( !pending.await(asynTimeout) ) {
+            EventDeliveryException e = new EventDeliveryException("Timed out waiting for async send callbacks, inFlight=" + window.getInFlight());
+            pending.abandon(e);
+            throw e;
+        }
+        if ( pending.isFailed() ) {
+            throw new EventDeliveryException("Async send failed", pending.getFailure());
+        }
+    }
+
+    /**
+     * Ordered without a journal: the messages a failed lane did not send are held in memory and
+     * sent by the next batch ahead of the new messages of their queue, so only that lane waits
+     * and the other lanes' messages are committed instead of being sent again after a rollback.
+     * While more than a batch is held, only the held lanes are sent and new batches are rolled
+     * back. Held messages are lost if the agent dies before they have gone through.
+     *
+     * @return the number of events held now minus the number held before
+     */
+    private int sendLanes(List<RoutedMessage> live) throws Exception {
+        List<RoutedMessage> held = new ArrayList<RoutedMessage>(heldCount);
+        for ( List<RoutedMessage> lane : heldLanes.values() ) {
+            held.addAll(lane);
+        }
+        boolean full = heldCount > 0 && heldCount + live.size() > batchSizer.getMax();
+        List<RoutedMessage> messages = held;
+        if ( !full ) {
+            messages = new ArrayList<RoutedMessage>(held.size() + live.size());
+            messages.addAll(held);
+            messages.addAll(live);
+        }
+        int heldEvents = eventsOf(held);
+        List<RoutedMessage> unsent;
+        try {
+            unsent = messages.isEmpty() ? Collections.<RoutedMessage>emptyList() : sendOrdered(producers.select(), messages);
+        } catch ( Exception e ) {
+            // 新的批次回滚, 之前保留的消息中没有确认的继续保留
+            List<RoutedMessage> unacknowledged = unacknowledged(held);
+            hold(unacknowledged);
+            counter.addToEventDrainSuccessCount(heldEvents - eventsOf(unacknowledged));
+            throw e;
+        }
+        hold(unsent);
+        if ( full ) {
+            counter.addToEventDrainSuccessCount(heldEvents - eventsOf(unsent));
+            throw new EventDeliveryException(heldCount + " messages of failed queue lanes still held, batch rolled back");
+        }
+        if ( !unsent.isEmpty() ) {
+            LOG.warn("RocketMQSink ordered send failed, hold {} messages of {} queue lanes", heldCount, heldLanes.size());
+        }
+        return eventsOf(unsent) - heldEvents;
+    }
+
+    private void hold(List<RoutedMessage> unsent) {
+        heldLanes.clear();
+        for ( RoutedMessage msg : unsent ) {
+            List<RoutedMessage> lane = heldLanes.get(msg.getQueue());
+            if ( null == lane ) {
+                lane = new ArrayList<RoutedMessage>();
+                heldLanes.put(msg.getQueue(), lane);
+            }
+            lane.add(msg);
+        }
+        heldCount = unsent.size();
+    }
+
+    private static int eventsOf(List<RoutedMessage> messages) {
+        int events = 0;
+        for ( RoutedMessage msg : messages ) {
+            events += eventsOf(msg.getMessage());
+        }
+        return events;
+    }
+
+    /**
+     * Send every queue's messages in order, one at a time, with the queues in parallel. A lane
+     * whose message finally fails stops there; the other lanes carry on.
+     *
+     * @return the messages of the failed lanes from the failed one on, in lane order
+     */
+    private List<RoutedMessage> sendOrdered(ProducerPool.Member producer, List<RoutedMessage> messages) throws Exception {
+        Map<MessageQueue, List<RoutedMessage>> lanes = new LinkedHashMap<MessageQueue, List<RoutedMessage>>();
+        for ( RoutedMessage msg : messages ) {
+            List<RoutedMessage> lane = lanes.get(msg.getQueue());
+            if ( null == lane ) {
+                lane = new ArrayList<RoutedMessage>();
+                lanes.put(msg.getQueue(), lane);
+            }
+            lane.add(msg);
+        }
+        PendingSends pending = new PendingSends();
+        List<RoutedMessage> unsent = Collections.synchronizedList(new ArrayList<RoutedMessage>());
+        try {
+            for ( List<RoutedMessage> lane : lanes.values() ) {
+                pending.register();
+                new LaneSendCallback(producer, lane, pending, unsent).send();
+            }
+        } finally {
+            pending.seal();
+        }
+        if ( !pending.await(asynTimeout) ) {
+            EventDeliveryException e = new EventDeliveryException("Timed out waiting for ordered send callbacks, lanes=" + lanes.size());
+            pending.abandon(e);
+            throw e;
+        }
+        return unsent;
+    }
+
+    private SendResult sendSync(ProducerPool.Member producer, RoutedMessage msg) throws Exception {
+        SendResult sendResult;
+        producer.acquire();
+        claimProbe(msg);
+        long start = System.nanoTime();
+        try {
+            if ( null == msg.getQueue() ) {
+                sendResult = producer.getProducer().send(msg.getMessage()); //默认失败会重试
+            } else {
+                sendResult = producer.getProducer().send(msg.getMessage(), msg.getQueue());
+            }
+        } catch ( Exception e ) {
+            counter.incrementSendFailedCount();
+            recordBroker(msg, start, false);
+            if ( null != msg.getQueue() ) {
+                routeCache.invalidate(msg.getMessage().getTopic());
+            }
+            throw e;
+        } finally {
+            producer.release();
+        }
+        msg.setAcknowledged(null != sendResult);
+        recordSend(msg, start);
+        recordBroker(msg, start, null != sendResult && sendResult.getSendStatus() == SendStatus.SEND_OK);
+        LOG.debug("sendResult->{}", sendResult);
+        if ( null == sendResult || sendResult.getSendStatus() != SendStatus.SEND_OK ) {
+            LOG.warn("sync send msg fail:sendResult={}", sendResult);
+        }
+        return sendResult;
+    }
+
+    private void recordSend(RoutedMessage msg, long start) {
+        Message message = msg.getMessage();
+        sendStats.recordSend(message.getTopic(), (System.nanoTime() - start) / 1000, message.getBody().length);
+    }
+
+    /**
+     * Holds its window slot until the message is finally acknowledged or given up, including
+     * while a retry is waiting in the RetryScheduler.
+     */
+    class WindowedSendCallback implements SendCallback, RetryScheduler.Retryable {
+
+        private final ProducerPool.Member producer;
+
+        private final RoutedMessage msg;
+
+        private final PendingSends pending;
+
+        private int attempt;
+
+        private long sentAt;
+
+        WindowedSendCallback(ProducerPool.Member producer, RoutedMessage msg, PendingSends pending) {
+            this.producer = producer;
+            producer.acquire();
+            this.msg = msg;
+            this.pending = pending;
+        }
+
+        void send() {
+            claimProbe(msg);
+            sentAt = System.nanoTime();
+            try {
+                if ( null == msg.getQueue() ) {
+                    producer.getProducer().send(msg.getMessage(), this);
+                } else {
+                    producer.getProducer().send(msg.getMessage(), msg.getQueue(), this);
+                }
+            } catch ( Exception e ) {
+                onException(e);
+            }
+        }
+
+        @Override public void retry() {
+            if ( pending.isFailed() ) {
+                // the transaction is rolled back anyway
+                release();
+                pending.complete();
+                return;
+            }
+            rerouteIfOpen(msg);
+            send();
+        }
+
+        @Override public void onSuccess(SendResult sendResult) {
+            LOG.debug("send success msg:{},result:{}", msg, sendResult);
+            recordSend(msg, sentAt);
+            recordBroker(msg, sentAt, sendResult.getSendStatus() == SendStatus.SEND_OK);
+            if ( sendResult.getSendStatus() != SendStatus.SEND_OK ) {
+                if ( !pending.isFailed()
+                        && retryScheduler.schedule(this, RetryScheduler.FailureClass.of(sendResult.getSendStatus()), ++attempt) ) {
+                    return;
+                }
+                LOG.warn("asyn send msg not ok:sendResult={}", sendResult);
+            }
+            msg.setAcknowledged(true);
+            release();
+            pending.complete();
+        }
+
+        @Override public void onException(Throwable e) {
+            recordBroker(msg, sentAt, false);
+            if ( null != msg.getQueue() ) {
+                routeCache.invalidate(msg.getMessage().getTopic());
+            }
+            if ( !pending.isFailed() && retryScheduler.schedule(this, RetryScheduler.FailureClass.EXCEPTION, ++attempt) ) {
+                LOG.warn("send exception, retry {} scheduled: {}", attempt, e.toString());
+                return;
+            }
+            LOG.error("send exception->", e);
+            counter.incrementSendFailedCount();
+            release();
+            pending.fail(e);
+        }
+
+        private void release() {
+            producer.release();
+            window.release();
+        }
+    }
+
+    /**
+     * Sends the messages of one queue one after another, the next one only from the callback of
+     * the previous, so a queue never has more than one message in flight. Retries go through the
+     * RetryScheduler before the lane moves on. The lane holds no InFlightWindow slot, the number
+     * of lanes is bounded by the queues of the batch.
+     */
+    class LaneSendCallback implements SendCallback, RetryScheduler.Retryable {
+
+        private final ProducerPool.Member producer;
+
+        private final List<RoutedMessage> lane;
+
+        private final PendingSends pending;
+
+        private final List<RoutedMessage> unsent;
+
+        private int index;
+
+        private int attempt;
+
+        private long sentAt;
+
+        LaneSendCallback(ProducerPool.Member producer, List<RoutedMessage> lane, PendingSends pending, List<RoutedMessage> unsent) {
+            this.producer = producer;
+            producer.acquire();
+            this.lane = lane;
+            this.pending = pending;
+            this.unsent = unsent;
+        }
+
+        void send() {
+            if ( stopped() ) {
+                // 已超时, 整个批次都会回滚或写入journal, 不必继续发送
+                finish(null);
+                return;
+            }
+            RoutedMessage msg = lane.get(index);
+            claimProbe(msg);
+            sentAt = System.nanoTime();
+            try {
+                producer.getProducer().send(msg.getMessage(), msg.getQueue(), this);
+            } catch ( Exception e ) {
+                onException(e);
+            }
+        }
+
+        @Override public void retry() {
+            send();
+        }
+
+        @Override public void onSuccess(SendResult sendResult) {
+            RoutedMessage msg = lane.get(index);
+            LOG.debug("send success msg:{},result:{}", msg, sendResult);
+            recordSend(msg, sentAt);
+            recordBroker(msg, sentAt, sendResult.getSendStatus() == SendStatus.SEND_OK);
+            if ( sendResult.getSendStatus() != SendStatus.SEND_OK ) {
+                if ( !stopped()
+                        && retryScheduler.schedule(this, RetryScheduler.FailureClass.of(sendResult.getSendStatus()), ++attempt) ) {
+                    return;
+                }
+                LOG.warn("ordered send msg not ok:sendResult={}", sendResult);
+            }
+            msg.setAcknowledged(true);
+            attempt = 0;
+            if ( ++index < lane.size() ) {
+                send();
+            } else {
+                finish(null);
+            }
+        }
+
+        @Override public void onException(Throwable e) {
+            RoutedMessage msg = lane.get(index);
+            recordBroker(msg, sentAt, false);
+            routeCache.invalidate(msg.getMessage().getTopic());
+            if ( !stopped()
+                    && retryScheduler.schedule(this, RetryScheduler.FailureClass.EXCEPTION, ++attempt) ) {
+                LOG.warn("ordered send exception, retry {} scheduled: {}", attempt, e.toString());
+                return;
+            }
+            LOG.error("ordered send exception, " + (lane.size() - index) + " messages of " + msg.getQueue() + " not sent", e);
+            counter.incrementSendFailedCount();
+            finish(e);
+        }
+
+        private boolean stopped() {
+            return pending.isAbandoned();
+        }
+
+        private void finish(Throwable e) {
+            if ( index < lane.size() ) {
+                unsent.addAll(lane.subList(index, lane.size()));
+            }
+            producer.release();
+            if ( null == e ) {
+                pending.complete();
+            } else {
+                pending.fail(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        counter.start();
+        LOG.warn("RocketMQSink start producer... ");
+        for ( ProducerPool.Member member : producers.getMembers() ) {
+            try {
+                member.getProducer().start();
+                counter.incrementConnectionCreatedCount();
+            } catch ( MQClientException e ) {
+                counter.incrementConnectionFailedCount();
+                LOG.error("RocketMQSink start producer failed", e);
+            }
+        }
+        retryScheduler.start(getName());
+        if ( null != journal ) {
+            try {
+                journal.open();
+                spilledKeysUnknown = ordered && !journal.isEmpty();
+                counter.setSpillJournal(journal);
+                replayer.start(getName());
+            } catch ( IOException e ) {
+                LOG.error("RocketMQSink open spill journal failed, run without it", e);
+                journal = null;
+                replayer = null;
+            }
+        }
+        running = true;
+        for ( int i = 1; i < workerCount; i++ ) {
+            Thread thread = new Thread(new Worker(i), getName() + "-worker-" + i);
+            thread.setDaemon(true);
+            workers.add(thread);
+            thread.start();
         }
         super.start();
     }
 
     @Override
     public synchronized void stop() {
+        running = false;
+        for ( Thread thread : workers ) {
+            thread.interrupt();
+        }
+        for ( Thread thread : workers ) {
+            try {
+                thread.join(asynTimeout);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.clear();
+        if ( !heldLanes.isEmpty() ) {
+            try {
+                sendLanes(Collections.<RoutedMessage>emptyList());
+            } catch ( Exception e ) {
+                LOG.warn("RocketMQSink send held messages on stop failed: {}", e.toString());
+            }
+            if ( heldCount > 0 ) {
+                LOG.error("RocketMQSink stop with {} held messages of failed queue lanes not sent", heldCount);
+            }
+        }
         // 停止Producer
-        producer.shutdown();
+        if ( null != replayer ) {
+            replayer.stop();
+            journal.close();
+        }
+        retryScheduler.stop();
+        producers.shutdown();
+        for ( int i = 0; i < producers.size(); i++ ) {
+            counter.incrementConnectionClosedCount();
+        }
+        counter.stop();
         super.stop();
-        LOG.warn("RocketMQSink stop producer... ");
+        LOG.warn("RocketMQSink stop producer {}, Metrics:{} ", getName(), counter);
     }
 
+    /**
+     * An extra drain loop next to the SinkRunner thread, backing off the same way SinkRunner does.
+     */
+    class Worker implements Runnable {
+
+        private final int index;
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override public void run() {
+            int backoffs = 0;
+            while ( running ) {
+                try {
+                    if ( drain(index) == Status.BACKOFF ) {
+                        backoffs++;
+                        Thread.sleep(Math.min(backoffs * RocketMQSinkConstant.WORKER_BACKOFF_SLEEP_INCREMENT,
+                                RocketMQSinkConstant.WORKER_MAX_BACKOFF_SLEEP));
+                    } else {
+                        backoffs = 0;
+                    }
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch ( Exception e ) {
+                    LOG.error("RocketMQSink worker " + index + " failed", e);
+                }
+            }
+        }
+    }
 }
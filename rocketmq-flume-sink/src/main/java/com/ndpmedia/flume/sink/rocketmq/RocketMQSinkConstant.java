@@ -13,16 +13,99 @@ public class RocketMQSinkConstant {
 
     /* Properties */
     public static final String TOPIC = "topic";
+    public static final String FALLBACK_TOPIC = "fallbackTopic";
     public static final String PRODUCER_GROUP = "producerGroup";
     public static final String TAG = "tag";
     public static final String ALLOW = "allow";
     public static final String DENY = "deny";
+    public static final String FILTER_MODE = "filterMode";
     public static final String ASYN = "asyn";
     public static final String NAMESRVADDR = "namesrvAddr";
     public static final String EXTRA = "extra";
+    public static final String BATCH_SIZE = "batchSize";
+    public static final String ADAPTIVE_BATCH_SIZE = "adaptiveBatchSize";
+    public static final String BATCH_SIZE_MIN = "batchSizeMin";
+    public static final String BATCH_SIZE_MAX = "batchSizeMax";
+    public static final String TARGET_SEND_LATENCY = "targetSendLatency";
+    public static final String BATCH_SIZE_INCREMENT = "batchSizeIncrement";
+    public static final String BATCH_SIZE_DECREASE_FACTOR = "batchSizeDecreaseFactor";
+    public static final String MAX_IN_FLIGHT = "maxInFlight";
+    public static final String ASYN_TIMEOUT = "asynTimeout";
+    public static final String PRODUCER_COUNT = "producerCount";
+    public static final String PRODUCER_SELECTOR = "producerSelector";
+    public static final String WORKER_COUNT = "workerCount";
+    public static final String COMPRESSION = "compression";
+    public static final String COMPRESSION_MIN_SIZE = "compressionMinSize";
+    public static final String PARTITION_KEY_HEADER = "partitionKeyHeader";
+    public static final String ORDERED = "ordered";
+    public static final String CHUNK_SIZE = "chunkSize";
+    public static final String HEADER_ENCODING = "headerEncoding";
+    public static final String PACK_MAX_EVENTS = "packMaxEvents";
+    public static final String PACK_MAX_BYTES = "packMaxBytes";
+    public static final String ROUTE_REFRESH_INTERVAL = "routeRefreshInterval";
+    public static final String MAX_DESTINATIONS = "maxDestinations";
+    public static final String RETRY_QUEUE_SIZE = "retryQueueSize";
+    public static final String RETRY_BACKOFF_MIN = "retryBackoffMin";
+    public static final String RETRY_BACKOFF_MAX = "retryBackoffMax";
+    public static final String RETRY_BUDGET_PREFIX = "retryBudget.";
+    public static final String HISTOGRAM_WINDOW = "histogramWindow";
+    public static final String CIRCUIT_BREAKER = "circuitBreaker";
+    public static final String CIRCUIT_BREAKER_LATENCY = "circuitBreakerLatency";
+    public static final String CIRCUIT_BREAKER_ERROR_RATE = "circuitBreakerErrorRate";
+    public static final String CIRCUIT_BREAKER_OPEN_TIME = "circuitBreakerOpenTime";
+    public static final String CIRCUIT_BREAKER_PROBES = "circuitBreakerProbes";
+    public static final String MAX_EVENTS_PER_SECOND = "maxEventsPerSecond";
+    public static final String MAX_BYTES_PER_SECOND = "maxBytesPerSecond";
+    public static final String RATE_LIMIT_BURST = "rateLimitBurst";
+    public static final String SPILL_DIR = "spillDir";
+    public static final String SPILL_SEGMENT_SIZE = "spillSegmentSize";
+    public static final String SPILL_MAX_SEGMENTS = "spillMaxSegments";
+    public static final String SPILL_REPLAY_RATE = "spillReplayRate";
+
+    /* message properties */
+    public static final String CODEC_PROPERTY = "rmqflume.codec";
+    public static final String PACK_PROPERTY = "rmqflume.pack";
+    public static final String HEADERS_PROPERTY = "rmqflume.headers";
+    public static final String CHUNK_GROUP_PROPERTY = "rmqflume.chunk.group";
+    public static final String CHUNK_INDEX_PROPERTY = "rmqflume.chunk.index";
+    public static final String CHUNK_COUNT_PROPERTY = "rmqflume.chunk.count";
 
     /* defalut */
     public static final String DEFAULT_TOPIC = "T_ROCKETMQ_FLUME";
     public static final String DEFAULT_PRODUCER_GROUP = "PG_ROCKETMQ_FLUME";
     public static final String DEFAULT_TAG = "";
+    public static final String FILTER_MODE_REGEX = "regex";
+    public static final String FILTER_MODE_BYTES = "bytes";
+    public static final String HEADER_ENCODING_PROPERTIES = "properties";
+    public static final String HEADER_ENCODING_BINARY = "binary";
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_BATCH_SIZE_MIN = 10;
+    public static final int DEFAULT_BATCH_SIZE_MAX = 1000;
+    public static final long DEFAULT_TARGET_SEND_LATENCY = 100L;
+    public static final int DEFAULT_BATCH_SIZE_INCREMENT = 10;
+    public static final double DEFAULT_BATCH_SIZE_DECREASE_FACTOR = 0.5;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+    public static final long DEFAULT_ASYN_TIMEOUT = 30000L;
+    public static final int DEFAULT_PRODUCER_COUNT = 1;
+    public static final int DEFAULT_WORKER_COUNT = 1;
+    public static final long WORKER_BACKOFF_SLEEP_INCREMENT = 1000L;
+    public static final long WORKER_MAX_BACKOFF_SLEEP = 5000L;
+    public static final int DEFAULT_COMPRESSION_MIN_SIZE = 1024;
+    public static final int DEFAULT_PACK_MAX_BYTES = 64 * 1024;
+    public static final long DEFAULT_ROUTE_REFRESH_INTERVAL = 30000L;
+    public static final int DEFAULT_MAX_DESTINATIONS = 1024;
+    public static final int DEFAULT_RETRY_QUEUE_SIZE = 10000;
+    public static final long DEFAULT_RETRY_BACKOFF_MIN = 100L;
+    public static final long DEFAULT_RETRY_BACKOFF_MAX = 5000L;
+    public static final int DEFAULT_RETRY_BUDGET_EXCEPTION = 3;
+    public static final int DEFAULT_RETRY_BUDGET_STATUS = 0;
+    public static final long DEFAULT_HISTOGRAM_WINDOW = 60000L;
+    public static final long DEFAULT_CIRCUIT_BREAKER_LATENCY = 1000L;
+    public static final double DEFAULT_CIRCUIT_BREAKER_ERROR_RATE = 0.5;
+    public static final long DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = 10000L;
+    public static final int DEFAULT_CIRCUIT_BREAKER_PROBES = 3;
+    public static final long DEFAULT_RATE_LIMIT_BURST = 1000L;
+    public static final int DEFAULT_SPILL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final int DEFAULT_SPILL_MAX_SEGMENTS = 16;
+    public static final int DEFAULT_SPILL_REPLAY_RATE = 1000;
 }
@@ -0,0 +1,319 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.apache.flume.instrumentation.SinkCounter;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * RocketMQSinkCounter Created with rocketmq-flume.
+ *
+ * On top of SinkCounter: eventDrainAttemptCount counts events taken from the channel,
+ * eventDrainSuccessCount events sent and committed, the batch complete/underflow/empty counts
+ * the fill of every take and connectionFailedCount producers that failed to start.
+ * All updates are single atomic operations; the in-flight gauge is read from the window itself.
+ */
+public class RocketMQSinkCounter extends SinkCounter implements RocketMQSinkCounterMBean {
+
+    private static final String COUNTER_RMQ_EVENT_DENIED =
+            "sink.rmq.event.denied";
+
+    private static final String COUNTER_RMQ_EVENT_NOT_ALLOWED =
+            "sink.rmq.event.not.allowed";
+
+    private static final String COUNTER_RMQ_EVENT_INVALID_TOPIC =
+            "sink.rmq.event.invalid.topic";
+
+    private static final String COUNTER_RMQ_SEND_RETRY =
+            "sink.rmq.send.retry";
+
+    private static final String COUNTER_RMQ_SEND_GIVE_UP =
+            "sink.rmq.send.giveup";
+
+    private static final String GAUGE_RMQ_RETRY_QUEUE_DEPTH =
+            "sink.rmq.retry.queue.depth";
+
+    private static final String COUNTER_RMQ_SEND_FAILED =
+            "sink.rmq.send.failed";
+
+    private static final String COUNTER_RMQ_ROLLBACK =
+            "sink.rmq.rollback";
+
+    private static final String COUNTER_RMQ_SPILLED =
+            "sink.rmq.spilled";
+
+    private static final String COUNTER_RMQ_SPILL_REPLAYED =
+            "sink.rmq.spill.replayed";
+
+    private static final String COUNTER_RMQ_THROTTLED =
+            "sink.rmq.throttled";
+
+    private static final String COUNTER_RMQ_THROTTLED_TIME =
+            "sink.rmq.throttled.time";
+
+    private static final String COUNTER_RMQ_THROTTLED_EVENTS =
+            "sink.rmq.throttled.events";
+
+    private static final String COUNTER_RMQ_BREAKER_OPENED =
+            "sink.rmq.breaker.opened";
+
+    private static final String[] ATTRIBUTES =
+            {COUNTER_RMQ_EVENT_DENIED, COUNTER_RMQ_EVENT_NOT_ALLOWED, COUNTER_RMQ_EVENT_INVALID_TOPIC, COUNTER_RMQ_SEND_RETRY, COUNTER_RMQ_SEND_GIVE_UP,
+                    GAUGE_RMQ_RETRY_QUEUE_DEPTH, COUNTER_RMQ_SEND_FAILED, COUNTER_RMQ_ROLLBACK, COUNTER_RMQ_SPILLED,
+                    COUNTER_RMQ_SPILL_REPLAYED, COUNTER_RMQ_THROTTLED, COUNTER_RMQ_THROTTLED_TIME, COUNTER_RMQ_THROTTLED_EVENTS,
+                    COUNTER_RMQ_BREAKER_OPENED};
+
+    private volatile InFlightWindow window;
+
+    private volatile SendStats sendStats;
+
+    private volatile SpillJournal journal;
+
+    private volatile BatchSizer batchSizer;
+
+    private volatile BrokerCircuitBreaker breaker;
+
+    private volatile AtomicLongArray workerBatches = new AtomicLongArray(1);
+
+    private volatile AtomicLongArray workerEvents = new AtomicLongArray(1);
+
+    public RocketMQSinkCounter(String name) {
+        super(name, ATTRIBUTES);
+    }
+
+    public RocketMQSinkCounter(String name, String[] attributes) {
+        super(name, attributes);
+    }
+
+    public long incrementEventDeniedCount() {
+        return increment(COUNTER_RMQ_EVENT_DENIED);
+    }
+
+    public long incrementEventNotAllowedCount() {
+        return increment(COUNTER_RMQ_EVENT_NOT_ALLOWED);
+    }
+
+    public long incrementEventInvalidTopicCount() {
+        return increment(COUNTER_RMQ_EVENT_INVALID_TOPIC);
+    }
+
+    public long incrementSendRetryCount() {
+        return increment(COUNTER_RMQ_SEND_RETRY);
+    }
+
+    public long incrementSendGiveUpCount() {
+        return increment(COUNTER_RMQ_SEND_GIVE_UP);
+    }
+
+    public long addToRetryQueueDepth(long delta) {
+        return addAndGet(GAUGE_RMQ_RETRY_QUEUE_DEPTH, delta);
+    }
+
+    public long incrementSendFailedCount() {
+        return increment(COUNTER_RMQ_SEND_FAILED);
+    }
+
+    public long incrementRollbackCount() {
+        return increment(COUNTER_RMQ_ROLLBACK);
+    }
+
+    public long addToSpilledCount(long delta) {
+        return addAndGet(COUNTER_RMQ_SPILLED, delta);
+    }
+
+    public long incrementSpillReplayedCount() {
+        return increment(COUNTER_RMQ_SPILL_REPLAYED);
+    }
+
+    public long incrementThrottledCount() {
+        return increment(COUNTER_RMQ_THROTTLED);
+    }
+
+    public long addToThrottledTime(long millis) {
+        return addAndGet(COUNTER_RMQ_THROTTLED_TIME, millis);
+    }
+
+    public long addToThrottledEventCount(long delta) {
+        return addAndGet(COUNTER_RMQ_THROTTLED_EVENTS, delta);
+    }
+
+    public long incrementBreakerOpenedCount() {
+        return increment(COUNTER_RMQ_BREAKER_OPENED);
+    }
+
+    public void setCircuitBreaker(BrokerCircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    public void setSpillJournal(SpillJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setBatchSizer(BatchSizer batchSizer) {
+        this.batchSizer = batchSizer;
+    }
+
+    public void setInFlightWindow(InFlightWindow window) {
+        this.window = window;
+    }
+
+    public void setSendStats(SendStats sendStats) {
+        this.sendStats = sendStats;
+    }
+
+    public void setWorkerCount(int workerCount) {
+        if ( workerCount != workerBatches.length() ) {
+            workerBatches = new AtomicLongArray(workerCount);
+            workerEvents = new AtomicLongArray(workerCount);
+        }
+    }
+
+    public void addToWorkerCommitted(int worker, long events) {
+        workerBatches.incrementAndGet(worker);
+        workerEvents.addAndGet(worker, events);
+    }
+
+    @Override public long getEventDeniedCount() {
+        return get(COUNTER_RMQ_EVENT_DENIED);
+    }
+
+    @Override public long getEventNotAllowedCount() {
+        return get(COUNTER_RMQ_EVENT_NOT_ALLOWED);
+    }
+
+    @Override public long getEventInvalidTopicCount() {
+        return get(COUNTER_RMQ_EVENT_INVALID_TOPIC);
+    }
+
+    @Override public long getSendRetryCount() {
+        return get(COUNTER_RMQ_SEND_RETRY);
+    }
+
+    @Override public long getSendGiveUpCount() {
+        return get(COUNTER_RMQ_SEND_GIVE_UP);
+    }
+
+    @Override public long getRetryQueueDepth() {
+        return get(GAUGE_RMQ_RETRY_QUEUE_DEPTH);
+    }
+
+    @Override public long getEventFilteredCount() {
+        return getEventDeniedCount() + getEventNotAllowedCount();
+    }
+
+    @Override public long getSendFailedCount() {
+        return get(COUNTER_RMQ_SEND_FAILED);
+    }
+
+    @Override public long getRollbackCount() {
+        return get(COUNTER_RMQ_ROLLBACK);
+    }
+
+    @Override public long getInFlightCount() {
+        InFlightWindow w = window;
+        return null == w ? 0 : w.getInFlight();
+    }
+
+    @Override public long getSpilledCount() {
+        return get(COUNTER_RMQ_SPILLED);
+    }
+
+    @Override public long getSpillReplayedCount() {
+        return get(COUNTER_RMQ_SPILL_REPLAYED);
+    }
+
+    @Override public long getSpillPendingBytes() {
+        SpillJournal j = journal;
+        return null == j ? 0 : j.getPendingBytes();
+    }
+
+    @Override public long getThrottledCount() {
+        return get(COUNTER_RMQ_THROTTLED);
+    }
+
+    @Override public long getThrottledTimeMillis() {
+        return get(COUNTER_RMQ_THROTTLED_TIME);
+    }
+
+    @Override public long getThrottledEventCount() {
+        return get(COUNTER_RMQ_THROTTLED_EVENTS);
+    }
+
+    @Override public long getBreakerOpenedCount() {
+        return get(COUNTER_RMQ_BREAKER_OPENED);
+    }
+
+    @Override public String getOpenBrokers() {
+        BrokerCircuitBreaker b = breaker;
+        return null == b ? "" : b.describe();
+    }
+
+    @Override public long getEffectiveBatchSize() {
+        BatchSizer sizer = batchSizer;
+        return null == sizer ? 0 : sizer.current();
+    }
+
+    @Override public String getWorkerStats() {
+        AtomicLongArray batches = workerBatches;
+        AtomicLongArray events = workerEvents;
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < batches.length(); i++ ) {
+            if ( i > 0 ) {
+                sb.append(';');
+            }
+            sb.append(i).append(":batches=").append(batches.get(i)).append(",events=").append(events.get(i));
+        }
+        return sb.toString();
+    }
+
+    @Override public long getSendLatencyP50() {
+        return latency().getValueAt(0.5);
+    }
+
+    @Override public long getSendLatencyP99() {
+        return latency().getValueAt(0.99);
+    }
+
+    @Override public long getSendLatencyP999() {
+        return latency().getValueAt(0.999);
+    }
+
+    @Override public long getSendLatencyMax() {
+        return latency().getMax();
+    }
+
+    @Override public String getSendLatencyByTopic() {
+        SendStats stats = sendStats;
+        return null == stats ? "" : stats.describeTopicLatency();
+    }
+
+    @Override public long getMessageSizeP50() {
+        return messageSize().getValueAt(0.5);
+    }
+
+    @Override public long getMessageSizeP99() {
+        return messageSize().getValueAt(0.99);
+    }
+
+    @Override public long getMessageSizeP999() {
+        return messageSize().getValueAt(0.999);
+    }
+
+    @Override public long getMessageSizeMax() {
+        return messageSize().getMax();
+    }
+
+    @Override public String getMessageSizeByTopic() {
+        SendStats stats = sendStats;
+        return null == stats ? "" : stats.describeTopicSize();
+    }
+
+    private LogHistogram.Snapshot latency() {
+        SendStats stats = sendStats;
+        return null == stats ? new LogHistogram.Snapshot() : stats.latency();
+    }
+
+    private LogHistogram.Snapshot messageSize() {
+        SendStats stats = sendStats;
+        return null == stats ? new LogHistogram.Snapshot() : stats.size();
+    }
+}
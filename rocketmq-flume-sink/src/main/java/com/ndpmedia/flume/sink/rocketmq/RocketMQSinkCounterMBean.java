@@ -0,0 +1,110 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.apache.flume.instrumentation.SinkCounterMBean;
+
+/**
+ * RocketMQSinkCounterMBean Created with rocketmq-flume.
+ *
+ * Extends SinkCounterMBean so the standard sink attributes stay visible over JMX next to ours.
+ */
+public interface RocketMQSinkCounterMBean extends SinkCounterMBean {
+
+    long getEventDeniedCount();
+
+    long getEventNotAllowedCount();
+
+    long getEventFilteredCount();
+
+    /**
+     * Events whose topic template rendered no valid topic, sent to fallbackTopic or dropped.
+     */
+    long getEventInvalidTopicCount();
+
+    long getSendFailedCount();
+
+    long getRollbackCount();
+
+    /**
+     * Async sends not acknowledged yet.
+     */
+    long getInFlightCount();
+
+    long getSendRetryCount();
+
+    long getSendGiveUpCount();
+
+    long getRetryQueueDepth();
+
+    /**
+     * Committed batches and events per worker, worker 0 is the SinkRunner thread.
+     */
+    String getWorkerStats();
+
+    /**
+     * Events taken per transaction right now, changes over time with adaptiveBatchSize.
+     */
+    long getEffectiveBatchSize();
+
+    long getBreakerOpenedCount();
+
+    /**
+     * broker:OPEN|HALF_OPEN,latency=..us,errorRate=..;... for brokers whose circuit is not closed.
+     */
+    String getOpenBrokers();
+
+    /**
+     * Drains backed off by the rate limit, the milliseconds the limit was exhausted and the
+     * events a drain left in the channel because of it.
+     */
+    long getThrottledCount();
+
+    long getThrottledTimeMillis();
+
+    long getThrottledEventCount();
+
+    /**
+     * Messages written to the spill journal and sent from it again; their events count towards
+     * EventDrainSuccessCount only once sent from the journal.
+     */
+    long getSpilledCount();
+
+    long getSpillReplayedCount();
+
+    /**
+     * Bytes in the spill journal not replayed yet.
+     */
+    long getSpillPendingBytes();
+
+    /**
+     * Send latency in microseconds over the histogram window, from send to the broker's reply.
+     */
+    long getSendLatencyP50();
+
+    long getSendLatencyP99();
+
+    long getSendLatencyP999();
+
+    long getSendLatencyMax();
+
+    /**
+     * topic{p50=..,p99=..,p999=..,max=..};... in microseconds.
+     */
+    String getSendLatencyByTopic();
+
+    /**
+     * Message body size in bytes, after compression, over the histogram window.
+     */
+    long getMessageSizeP50();
+
+    long getMessageSizeP99();
+
+    long getMessageSizeP999();
+
+    long getMessageSizeMax();
+
+    /**
+     * topic{p50=..,p99=..,p999=..,max=..};... in bytes.
+     */
+    String getMessageSizeByTopic();
+
+}
@@ -2,7 +2,13 @@ package com.ndpmedia.flume.sink.rocketmq;
 
 import com.alibaba.rocketmq.client.producer.DefaultMQProducer;
 import com.alibaba.rocketmq.client.producer.MQProducer;
+import com.alibaba.rocketmq.common.UtilAll;
 import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * RocketMQSinkUtil Created with rocketmq-flume.
@@ -13,11 +19,43 @@ import org.apache.flume.Context;
  */
 public class RocketMQSinkUtil {
 
+    private static final Logger LOG = LoggerFactory.getLogger(RocketMQSinkUtil.class);
+
     public static MQProducer getProducerInstance(Context context) {
+        return getProducerInstance(context, null);
+    }
+
+    /**
+     * producerCount个producer, producerCount>1时每个producer使用不同的instanceName, 各自拥有独立的client instance和broker连接
+     */
+    public static ProducerPool getProducerPool(Context context, String sinkName) {
+        int producerCount = context.getInteger(RocketMQSinkConstant.PRODUCER_COUNT, RocketMQSinkConstant.DEFAULT_PRODUCER_COUNT);
+        if ( producerCount <= 0 ) {
+            throw new IllegalArgumentException("producerCount should be greater than 0.");
+        }
+        List<MQProducer> producers = new ArrayList<MQProducer>(producerCount);
+        if ( producerCount == 1 ) {
+            producers.add(getProducerInstance(context));
+        } else {
+            for ( int i = 0; i < producerCount; i++ ) {
+                producers.add(getProducerInstance(context, UtilAll.getPid() + "#" + sinkName + "#" + i));
+            }
+        }
+        return new ProducerPool(producers, context.getString(RocketMQSinkConstant.PRODUCER_SELECTOR, ProducerPool.ROUND_ROBIN));
+    }
+
+    public static MQProducer getProducerInstance(Context context, String instanceName) {
         final String producerGroup = context.getString(RocketMQSinkConstant.PRODUCER_GROUP, RocketMQSinkConstant.DEFAULT_PRODUCER_GROUP);
-        System.out.println("----------producerGroup is "+producerGroup+" -----------");
+        LOG.debug("producerGroup is {}, instanceName={}", producerGroup, instanceName);
 
         DefaultMQProducer producer = new DefaultMQProducer(producerGroup);
+        if ( null != instanceName ) {
+            producer.setInstanceName(instanceName);
+        }
+        if ( BodyCodec.of(context.getString(RocketMQSinkConstant.COMPRESSION)) != BodyCodec.NONE ) {
+            // body已由sink压缩, 关闭client自带的zlib压缩
+            producer.setCompressMsgBodyOverHowmuch(Integer.MAX_VALUE);
+        }
 
         String nameSrvAddr = context.getString(RocketMQSinkConstant.NAMESRVADDR);
         if ( null != nameSrvAddr && nameSrvAddr.trim().length() > 0 ){
@@ -30,11 +68,11 @@ public class RocketMQSinkUtil {
             }else if(nameSrvAddr.contains(":")){//包含port的话，就设置producer的nameSrvAddr
                 producer.setNamesrvAddr(nameSrvAddr);//from jvm
             }else{//这里是因为我厂更改了RocketMQ的namesrv获取方式而自定义的，可忽略
-                System.out.println("------------nameSrvAddr is "+nameSrvAddr+" and not set producer.namesrvAddr---------------");
+                LOG.debug("nameSrvAddr is {} and not set producer.namesrvAddr", nameSrvAddr);
             }
         }
 
-        System.out.println("----------nameSrvAddr is "+nameSrvAddr+" -----------");
+        LOG.info("producer of group {} created, nameSrvAddr is {}", producerGroup, nameSrvAddr);
         return producer;
     }
 
@@ -0,0 +1,64 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+
+/**
+ * RoutedMessage Created with rocketmq-flume.
+ *
+ * A message with its partition key and the queue chosen for it; a null queue lets the producer
+ * pick one.
+ */
+public class RoutedMessage {
+
+    private final Message message;
+
+    private final String key;
+
+    private MessageQueue queue;
+
+    private boolean probe;//发往半开broker的探测消息
+
+    private volatile boolean acknowledged;//broker已返回发送结果, 发送失败时不再写入journal
+
+    public RoutedMessage(Message message, String key) {
+        this.message = message;
+        this.key = key;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public MessageQueue getQueue() {
+        return queue;
+    }
+
+    public void setQueue(MessageQueue queue) {
+        this.queue = queue;
+    }
+
+    public boolean isProbe() {
+        return probe;
+    }
+
+    public void setProbe(boolean probe) {
+        this.probe = probe;
+    }
+
+    public boolean isAcknowledged() {
+        return acknowledged;
+    }
+
+    public void setAcknowledged(boolean acknowledged) {
+        this.acknowledged = acknowledged;
+    }
+
+    @Override public String toString() {
+        return null == queue ? message.toString() : message + "@" + queue;
+    }
+}
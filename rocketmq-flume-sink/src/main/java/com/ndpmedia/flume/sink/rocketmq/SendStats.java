@@ -0,0 +1,119 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SendStats Created with rocketmq-flume.
+ *
+ * Send latency (microseconds from send to callback) and message body size over a sliding
+ * window, for the whole sink and per topic. With templated topics the number of topics is
+ * open-ended, so at most maxTopics topics are tracked and the least recently sent one is
+ * dropped when a new topic shows up.
+ */
+public class SendStats {
+
+    private static final int STRIPES = 4;
+
+    static class TopicHistograms {
+
+        final WindowedHistogram latency;
+
+        final WindowedHistogram size;
+
+        volatile long lastUsed;
+
+        TopicHistograms(long windowMillis) {
+            latency = new WindowedHistogram(windowMillis, 1);
+            size = new WindowedHistogram(windowMillis, 1);
+        }
+    }
+
+    private final long windowMillis;
+
+    private final int maxTopics;
+
+    private final WindowedHistogram latency;
+
+    private final WindowedHistogram size;
+
+    private final ConcurrentMap<String, TopicHistograms> topics = new ConcurrentHashMap<String, TopicHistograms>();
+
+    public SendStats(long windowMillis, int maxTopics) {
+        this.windowMillis = windowMillis;
+        this.maxTopics = maxTopics;
+        this.latency = new WindowedHistogram(windowMillis, STRIPES);
+        this.size = new WindowedHistogram(windowMillis, STRIPES);
+    }
+
+    public void recordSend(String topic, long latencyMicros, int bodySize) {
+        latency.record(latencyMicros);
+        size.record(bodySize);
+        TopicHistograms histograms = topics.get(topic);
+        if ( null == histograms ) {
+            histograms = new TopicHistograms(windowMillis);
+            TopicHistograms existing = topics.putIfAbsent(topic, histograms);
+            if ( null != existing ) {
+                histograms = existing;
+            } else if ( topics.size() > maxTopics ) {
+                evictEldest(topic);
+            }
+        }
+        histograms.lastUsed = System.currentTimeMillis();
+        histograms.latency.record(latencyMicros);
+        histograms.size.record(bodySize);
+    }
+
+    private void evictEldest(String keep) {
+        String eldest = null;
+        long eldestUsed = Long.MAX_VALUE;
+        for ( Map.Entry<String, TopicHistograms> entry : topics.entrySet() ) {
+            if ( !entry.getKey().equals(keep) && entry.getValue().lastUsed < eldestUsed ) {
+                eldest = entry.getKey();
+                eldestUsed = entry.getValue().lastUsed;
+            }
+        }
+        if ( null != eldest ) {
+            topics.remove(eldest);
+        }
+    }
+
+    public int getTopicCount() {
+        return topics.size();
+    }
+
+    public LogHistogram.Snapshot latency() {
+        return latency.snapshot();
+    }
+
+    public LogHistogram.Snapshot size() {
+        return size.snapshot();
+    }
+
+    /**
+     * topic{p50=..,p99=..,p999=..,max=..};... in microseconds.
+     */
+    public String describeTopicLatency() {
+        return describe(false);
+    }
+
+    /**
+     * topic{p50=..,p99=..,p999=..,max=..};... in bytes.
+     */
+    public String describeTopicSize() {
+        return describe(true);
+    }
+
+    private String describe(boolean bySize) {
+        StringBuilder sb = new StringBuilder();
+        for ( Map.Entry<String, TopicHistograms> entry : topics.entrySet() ) {
+            if ( sb.length() > 0 ) {
+                sb.append(';');
+            }
+            WindowedHistogram histogram = bySize ? entry.getValue().size : entry.getValue().latency;
+            sb.append(entry.getKey()).append('{').append(histogram.snapshot()).append('}');
+        }
+        return sb.toString();
+    }
+}
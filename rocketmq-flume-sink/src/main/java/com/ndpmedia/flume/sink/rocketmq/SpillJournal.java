@@ -0,0 +1,431 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageConst;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * SpillJournal Created with rocketmq-flume.
+ *
+ * An append-only journal of messages the sink could not send, kept in memory-mapped segment
+ * files named by their start offset, like the broker's commit log. Every record is
+ * [length][crc32][payload]; a zero length marks the end of a segment. Offsets are global, the
+ * read offset is kept in a small checkpoint file and segments are deleted once fully read.
+ * Replay is at-least-once: records read after the last checkpoint are read again after a crash.
+ */
+public class SpillJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillJournal.class);
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    /**
+     * A record read from the journal and the offset right after it.
+     */
+    public static class Entry {
+
+        private final Message message;
+
+        private final long nextOffset;
+
+        Entry(Message message, long nextOffset) {
+            this.message = message;
+            this.nextOffset = nextOffset;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public long getNextOffset() {
+            return nextOffset;
+        }
+    }
+
+    static class Segment {
+
+        final long start;
+
+        final File file;
+
+        final RandomAccessFile raf;
+
+        final MappedByteBuffer buffer;
+
+        Segment(long start, File file, int size) throws IOException {
+            this.start = start;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        int size() {
+            return buffer.capacity();
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch ( IOException e ) {
+                LOG.warn("close journal segment {} failed", file, e);
+            }
+        }
+
+        /**
+         * Close, unmap and delete a segment no longer in the journal; the mapping would otherwise
+         * hold the deleted file's pages until the buffer is garbage collected.
+         */
+        void release() {
+            close();
+            try {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if ( null != cleaner ) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch ( Exception e ) {
+                // 无法主动unmap则交给GC回收
+                LOG.debug("unmap journal segment {} failed: {}", file, e.toString());
+            }
+            delete(file);
+        }
+    }
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final int maxSegments;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<Long, Segment>();
+
+    private MappedByteBuffer checkpoint;
+
+    private RandomAccessFile checkpointFile;
+
+    private long writeOffset;
+
+    private long readOffset;
+
+    public SpillJournal(File dir, int segmentSize, int maxSegments) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Map the existing segments and find the end of the last one by its checksums.
+     */
+    public synchronized void open() throws IOException {
+        if ( !dir.isDirectory() && !dir.mkdirs() ) {
+            throw new IOException("can not create journal dir " + dir);
+        }
+        checkpointFile = new RandomAccessFile(new File(dir, CHECKPOINT), "rw");
+        boolean fresh = checkpointFile.length() < 8;
+        checkpoint = checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        readOffset = fresh ? 0 : checkpoint.getLong(0);
+
+        File[] files = dir.listFiles(new FilenameFilter() {
+            @Override public boolean accept(File d, String name) {
+                return name.matches("\\d{20}");
+            }
+        });
+        for ( File file : null == files ? new File[0] : files ) {
+            long start = Long.parseLong(file.getName());
+            if ( start + file.length() <= readOffset ) {
+                delete(file);
+                continue;
+            }
+            segments.put(start, new Segment(start, file, (int) file.length()));
+        }
+        if ( segments.isEmpty() ) {
+            writeOffset = readOffset;
+        } else {
+            Segment last = segments.lastEntry().getValue();
+            int pos = last.start < readOffset ? (int) (readOffset - last.start) : 0;
+            while ( true ) {
+                int next = validRecordEnd(last, pos);
+                if ( next < 0 ) {
+                    break;
+                }
+                pos = next;
+            }
+            writeOffset = last.start + pos;
+            if ( readOffset < segments.firstKey() ) {
+                readOffset = segments.firstKey();
+            }
+        }
+        LOG.info("spill journal {} opened, segments={}, readOffset={}, writeOffset={}", dir, segments.size(), readOffset, writeOffset);
+    }
+
+    public synchronized void close() {
+        for ( Segment segment : segments.values() ) {
+            segment.buffer.force();
+            segment.close();
+        }
+        segments.clear();
+        if ( null != checkpoint ) {
+            checkpoint.force();
+            try {
+                checkpointFile.close();
+            } catch ( IOException e ) {
+                LOG.warn("close journal checkpoint failed", e);
+            }
+        }
+    }
+
+    /**
+     * Append the messages as a whole and force them to disk.
+     *
+     * @return false when the journal has no room left for all of them, nothing is appended then.
+     */
+    public synchronized boolean append(List<Message> messages) throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>(messages.size());
+        for ( Message message : messages ) {
+            byte[] record = encode(message);
+            if ( record.length + HEADER_SIZE + 4 > segmentSize ) {
+                LOG.warn("message of {} bytes does not fit in a journal segment", record.length);
+                return false;
+            }
+            records.add(record);
+        }
+        if ( records.isEmpty() ) {
+            return true;
+        }
+        long start = writeOffset;
+        int segmentCount = segments.size();
+        try {
+            for ( byte[] record : records ) {
+                if ( !write(record) ) {
+                    truncate(start, segmentCount);
+                    return false;
+                }
+            }
+        } catch ( IOException e ) {
+            truncate(start, segmentCount);
+            throw e;
+        }
+        for ( Segment segment : segments.tailMap(segments.floorKey(start), true).values() ) {
+            segment.buffer.force();
+        }
+        return true;
+    }
+
+    private boolean write(byte[] record) throws IOException {
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        int length = HEADER_SIZE + record.length;
+        if ( null == segment || writeOffset - segment.start + length + 4 > segment.size() ) {
+            if ( segments.size() >= maxSegments ) {
+                return false;
+            }
+            if ( null != segment ) {
+                segment.buffer.putInt((int) (writeOffset - segment.start), 0);
+                writeOffset = segment.start + segment.size();
+            }
+            segment = new Segment(writeOffset, new File(dir, String.format("%020d", writeOffset)), segmentSize);
+            segments.put(segment.start, segment);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position((int) (writeOffset - segment.start));
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+        // 下一条的位置写0, 以便恢复时识别结尾
+        buffer.putInt(0);
+        writeOffset += length;
+        return true;
+    }
+
+    private void truncate(long offset, int segmentCount) {
+        while ( segments.size() > segmentCount ) {
+            Segment segment = segments.pollLastEntry().getValue();
+            segment.release();
+        }
+        Map.Entry<Long, Segment> last = segments.floorEntry(offset);
+        if ( null != last && offset - last.getKey() + 4 <= last.getValue().size() ) {
+            last.getValue().buffer.putInt((int) (offset - last.getKey()), 0);
+        }
+        writeOffset = offset;
+    }
+
+    /**
+     * The record at the read offset, without consuming it.
+     *
+     * @return null when everything appended has been read.
+     */
+    public synchronized Entry peek() throws IOException {
+        while ( readOffset < writeOffset ) {
+            Segment segment = segments.floorEntry(readOffset).getValue();
+            int pos = (int) (readOffset - segment.start);
+            int next = validRecordEnd(segment, pos);
+            if ( next < 0 ) {
+                // 段尾标记或损坏的记录, 跳过该段剩余部分
+                long end = Math.min(segment.start + segment.size(), writeOffset);
+                if ( end == writeOffset || segment.buffer.getInt(pos) != 0 ) {
+                    LOG.error("journal segment {} is corrupt at {}, skip {} bytes", segment.file, pos, end - readOffset);
+                }
+                commit(end);
+                continue;
+            }
+            byte[] record = new byte[next - pos - HEADER_SIZE];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(pos + HEADER_SIZE);
+            buffer.get(record);
+            return new Entry(decode(record), segment.start + next);
+        }
+        return null;
+    }
+
+    /**
+     * Consume everything before the offset, deleting the segments that are done.
+     */
+    public synchronized void commit(long offset) {
+        readOffset = offset;
+        checkpoint.putLong(0, offset);
+        while ( !segments.isEmpty() ) {
+            Segment first = segments.firstEntry().getValue();
+            if ( first.start + first.size() > offset || first.start + first.size() > writeOffset ) {
+                break;
+            }
+            segments.pollFirstEntry();
+            checkpoint.force();
+            first.release();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return readOffset >= writeOffset;
+    }
+
+    /**
+     * Bytes appended but not read yet, including segment padding.
+     */
+    public synchronized long getPendingBytes() {
+        return writeOffset - readOffset;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the end of the record at pos, or -1 when there is no complete, intact record there.
+     */
+    private static int validRecordEnd(Segment segment, int pos) {
+        if ( pos + HEADER_SIZE > segment.size() ) {
+            return -1;
+        }
+        int length = segment.buffer.getInt(pos);
+        if ( length <= 0 || pos + HEADER_SIZE + length > segment.size() ) {
+            return -1;
+        }
+        byte[] record = new byte[length];
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(pos + HEADER_SIZE);
+        buffer.get(record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ( (int) crc.getValue() != segment.buffer.getInt(pos + 4) ) {
+            return -1;
+        }
+        return pos + HEADER_SIZE + length;
+    }
+
+    private static void delete(File file) {
+        if ( !file.delete() ) {
+            LOG.warn("delete journal segment {} failed", file);
+        }
+    }
+
+    /**
+     * topic, tags, user properties and body; system properties other than tags are not kept.
+     */
+    static byte[] encode(Message message) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(message.getBody().length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeString(out, message.getTopic());
+        writeString(out, message.getTags());
+        List<Map.Entry<String, String>> properties = new ArrayList<Map.Entry<String, String>>();
+        if ( null != message.getProperties() ) {
+            for ( Map.Entry<String, String> entry : message.getProperties().entrySet() ) {
+                if ( !MessageConst.systemKeySet.contains(entry.getKey()) ) {
+                    properties.add(entry);
+                }
+            }
+        }
+        out.writeInt(properties.size());
+        for ( Map.Entry<String, String> entry : properties ) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.writeInt(message.getBody().length);
+        out.write(message.getBody());
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static Message decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String topic = readString(in);
+        String tags = readString(in);
+        int count = in.readInt();
+        Map<String, String> properties = new TreeMap<String, String>();
+        for ( int i = 0; i < count; i++ ) {
+            properties.put(readString(in), readString(in));
+        }
+        byte[] body = new byte[in.readInt()];
+        in.readFully(body);
+        Message message = new Message(topic, tags, body);
+        for ( Map.Entry<String, String> entry : properties.entrySet() ) {
+            message.putUserProperty(entry.getKey(), entry.getValue());
+        }
+        return message;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if ( null == value ) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 ) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -0,0 +1,124 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SpillReplayer Created with rocketmq-flume.
+ *
+ * Sends the spill journal back to RocketMQ in order on its own thread, at most ratePerSecond
+ * messages a second so a recovering broker is not flooded. A message is only consumed from the
+ * journal once it is sent; a failed send is retried after the backoff, and until a send works
+ * again the sink spills new batches directly instead of trying the broker first.
+ */
+public class SpillReplayer implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillReplayer.class);
+
+    private static final long IDLE_SLEEP = 1000L;
+
+    public interface Sender {
+        void send(Message message) throws Exception;
+    }
+
+    private final SpillJournal journal;
+
+    private final Sender sender;
+
+    private final long intervalNanos;
+
+    private final long backoff;
+
+    private final RocketMQSinkCounter counter;
+
+    private volatile boolean failing;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public SpillReplayer(SpillJournal journal, Sender sender, int ratePerSecond, long backoff, RocketMQSinkCounter counter) {
+        this.journal = journal;
+        this.sender = sender;
+        this.intervalNanos = 1000000000L / Math.max(1, ratePerSecond);
+        this.backoff = backoff;
+        this.counter = counter;
+    }
+
+    public void start(String name) {
+        // 有积压说明上次停止时broker可能仍不可用, 先由回放确认
+        failing = !journal.isEmpty();
+        running = true;
+        thread = new Thread(this, name + "-spill-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Thread t = thread;
+        if ( null != t ) {
+            t.interrupt();
+            try {
+                t.join(backoff);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * True from a failed send until the next replayed message goes through.
+     */
+    public boolean isFailing() {
+        return failing;
+    }
+
+    public void markFailing() {
+        failing = true;
+    }
+
+    @Override public void run() {
+        long next = System.nanoTime();
+        while ( running ) {
+            try {
+                SpillJournal.Entry entry = journal.peek();
+                if ( null == entry ) {
+                    failing = false;
+                    Thread.sleep(IDLE_SLEEP);
+                    continue;
+                }
+                long now = System.nanoTime();
+                if ( next > now ) {
+                    Thread.sleep((next - now) / 1000000L, (int) ((next - now) % 1000000L));
+                }
+                next = Math.max(next, now) + intervalNanos;
+                try {
+                    sender.send(entry.getMessage());
+                } catch ( InterruptedException e ) {
+                    throw e;
+                } catch ( Exception e ) {
+                    failing = true;
+                    LOG.warn("replay spilled message failed, retry in {}ms: {}", backoff, e.toString());
+                    Thread.sleep(backoff);
+                    continue;
+                }
+                failing = false;
+                journal.commit(entry.getNextOffset());
+                counter.incrementSpillReplayedCount();
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch ( Exception e ) {
+                LOG.error("spill replay failed", e);
+                try {
+                    Thread.sleep(backoff);
+                } catch ( InterruptedException ie ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
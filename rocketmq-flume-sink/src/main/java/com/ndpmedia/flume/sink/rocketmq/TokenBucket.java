@@ -0,0 +1,83 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket Created with rocketmq-flume.
+ *
+ * A lock-free token bucket kept as the time the bucket is empty again (nanoTime), so taking
+ * tokens is one CAS and refilling costs nothing. Callers may overdraw: a batch whose size is
+ * only known after it was taken is charged in full, and the bucket stays empty until the debt
+ * is paid off, which keeps the long-run rate while never blocking anyone.
+ */
+public class TokenBucket {
+
+    private final double nanosPerToken;
+
+    private final long burstNanos;
+
+    private final AtomicLong emptyAt;
+
+    private final AtomicLong throttledUntil = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param ratePerSecond tokens added per second
+     * @param burstMillis the bucket holds this many milliseconds worth of tokens
+     */
+    public TokenBucket(long ratePerSecond, long burstMillis) {
+        if ( ratePerSecond <= 0 ) {
+            throw new IllegalArgumentException("rate should be greater than 0");
+        }
+        this.nanosPerToken = 1000000000.0 / ratePerSecond;
+        this.burstNanos = Math.max(1, burstMillis) * 1000000L;
+        this.emptyAt = new AtomicLong(System.nanoTime() - burstNanos);
+    }
+
+    /**
+     * Tokens available right now, at most max; 0 while the bucket is empty or in debt.
+     */
+    public long available(long max) {
+        long now = System.nanoTime();
+        long base = Math.max(emptyAt.get(), now - burstNanos);
+        if ( base >= now ) {
+            return 0;
+        }
+        return Math.min(max, (long) ((now - base) / nanosPerToken));
+    }
+
+    public void consume(long tokens) {
+        if ( tokens <= 0 ) {
+            return;
+        }
+        long cost = (long) (tokens * nanosPerToken);
+        while ( true ) {
+            long now = System.nanoTime();
+            long current = emptyAt.get();
+            long next = Math.max(current, now - burstNanos) + cost;
+            if ( emptyAt.compareAndSet(current, next) ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Account the time the bucket stays empty from now on, each stretch only once however many
+     * callers find it empty.
+     *
+     * @return nanoseconds of throttling not reported before
+     */
+    public long claimThrottledNanos() {
+        long now = System.nanoTime();
+        long until = emptyAt.get();
+        while ( true ) {
+            long accounted = throttledUntil.get();
+            long from = accounted == Long.MIN_VALUE ? now : Math.max(accounted, now);
+            if ( until <= from ) {
+                return 0;
+            }
+            if ( throttledUntil.compareAndSet(accounted, until) ) {
+                return until - from;
+            }
+        }
+    }
+}
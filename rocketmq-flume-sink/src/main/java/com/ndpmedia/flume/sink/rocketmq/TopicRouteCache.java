@@ -0,0 +1,125 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.client.producer.MQProducer;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TopicRouteCache Created with rocketmq-flume.
+ *
+ * The publish queues of each topic, sorted so a key keeps hashing to the same queue across
+ * refreshes. fetchPublishMessageQueues asks the name server, so the list is only re-fetched
+ * once it is older than the refresh interval or after a send to one of its queues failed;
+ * while one thread refreshes, the others keep using the old list.
+ *
+ * With templated topics the number of topics is open-ended, so at most maxTopics routes are
+ * kept and the least recently used one is dropped when a new topic shows up.
+ */
+public class TopicRouteCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TopicRouteCache.class);
+
+    static class Route {
+
+        volatile List<MessageQueue> queues;
+
+        volatile long fetchedAt;
+
+        volatile long lastUsed;
+
+        final AtomicBoolean refreshing = new AtomicBoolean();
+    }
+
+    private final MQProducer producer;
+
+    private final long refreshInterval;
+
+    private final int maxTopics;
+
+    private final ConcurrentMap<String, Route> routes = new ConcurrentHashMap<String, Route>();
+
+    public TopicRouteCache(MQProducer producer, long refreshInterval, int maxTopics) {
+        this.producer = producer;
+        this.refreshInterval = refreshInterval;
+        this.maxTopics = maxTopics;
+    }
+
+    public List<MessageQueue> getQueues(String topic) throws MQClientException {
+        Route route = routes.get(topic);
+        if ( null == route ) {
+            route = new Route();
+            Route existing = routes.putIfAbsent(topic, route);
+            if ( null != existing ) {
+                route = existing;
+            } else if ( routes.size() > maxTopics ) {
+                evictEldest(topic);
+            }
+        }
+        route.lastUsed = System.currentTimeMillis();
+
+        List<MessageQueue> queues = route.queues;
+        if ( null == queues ) {
+            return refresh(topic, route);
+        }
+        if ( System.currentTimeMillis() - route.fetchedAt >= refreshInterval && route.refreshing.compareAndSet(false, true) ) {
+            try {
+                return refresh(topic, route);
+            } catch ( MQClientException e ) {
+                LOG.warn("refresh route of topic " + topic + " failed, keep the cached one", e);
+            } finally {
+                route.refreshing.set(false);
+            }
+        }
+        return queues;
+    }
+
+    /**
+     * Force a re-fetch on the next lookup, e.g. when a send to one of the cached queues failed.
+     */
+    public void invalidate(String topic) {
+        Route route = routes.get(topic);
+        if ( null != route ) {
+            route.fetchedAt = 0;
+        }
+    }
+
+    public int size() {
+        return routes.size();
+    }
+
+    private void evictEldest(String keep) {
+        String eldest = null;
+        long eldestUsed = Long.MAX_VALUE;
+        for ( Map.Entry<String, Route> entry : routes.entrySet() ) {
+            if ( !entry.getKey().equals(keep) && entry.getValue().lastUsed < eldestUsed ) {
+                eldest = entry.getKey();
+                eldestUsed = entry.getValue().lastUsed;
+            }
+        }
+        if ( null != eldest ) {
+            routes.remove(eldest);
+        }
+    }
+
+    private List<MessageQueue> refresh(String topic, Route route) throws MQClientException {
+        List<MessageQueue> fetched = new ArrayList<MessageQueue>(producer.fetchPublishMessageQueues(topic));
+        if ( fetched.isEmpty() ) {
+            throw new MQClientException("No publish queue for topic " + topic, null);
+        }
+        Collections.sort(fetched);
+        List<MessageQueue> queues = Collections.unmodifiableList(fetched);
+        route.queues = queues;
+        route.fetchedAt = System.currentTimeMillis();
+        return queues;
+    }
+}
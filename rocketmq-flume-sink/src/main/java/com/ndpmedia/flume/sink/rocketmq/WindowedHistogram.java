@@ -0,0 +1,50 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * WindowedHistogram Created with rocketmq-flume.
+ *
+ * A sliding window over the last windowMillis, made of a ring of LogHistograms that each cover
+ * one slice of the window. The first recorder of a new slice clears the slot it takes over, so
+ * a few samples racing with that reset may be lost, which is fine for monitoring.
+ */
+public class WindowedHistogram {
+
+    private static final int SLICES = 6;
+
+    private final long sliceMillis;
+
+    private final LogHistogram[] slots = new LogHistogram[SLICES];
+
+    private final AtomicLongArray epochs = new AtomicLongArray(SLICES);
+
+    public WindowedHistogram(long windowMillis, int stripeCount) {
+        this.sliceMillis = Math.max(1, windowMillis / SLICES);
+        for ( int i = 0; i < SLICES; i++ ) {
+            slots[i] = new LogHistogram(stripeCount);
+            epochs.set(i, -1);
+        }
+    }
+
+    public void record(long value) {
+        long epoch = System.currentTimeMillis() / sliceMillis;
+        int slot = (int) (epoch % SLICES);
+        long seen = epochs.get(slot);
+        if ( seen != epoch && epochs.compareAndSet(slot, seen, epoch) ) {
+            slots[slot].reset();
+        }
+        slots[slot].record(value);
+    }
+
+    public LogHistogram.Snapshot snapshot() {
+        long epoch = System.currentTimeMillis() / sliceMillis;
+        LogHistogram.Snapshot snapshot = new LogHistogram.Snapshot();
+        for ( int i = 0; i < SLICES; i++ ) {
+            if ( epochs.get(i) > epoch - SLICES ) {
+                slots[i].addTo(snapshot);
+            }
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,34 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestBatchSizer {
+
+    @Test
+    public void testAdditiveIncreaseMultiplicativeDecrease() {
+        BatchSizer sizer = new BatchSizer(10, 100, 50, 100, 10, 0.5);
+        sizer.onBatch(50, 50, 20000, false);
+        assertEquals(60, sizer.current());
+        // 未取满的批次不增加
+        sizer.onBatch(60, 30, 20000, false);
+        assertEquals(60, sizer.current());
+        sizer.onBatch(60, 60, 200000, false);
+        assertEquals(30, sizer.current());
+        sizer.onBatch(30, 30, 0, true);
+        sizer.onBatch(15, 15, 0, true);
+        assertEquals(10, sizer.current());
+        for ( int i = 0; i < 20; i++ ) {
+            sizer.onBatch(sizer.current(), sizer.current(), 1000, false);
+        }
+        assertEquals(100, sizer.current());
+    }
+
+    @Test
+    public void testFixed() {
+        BatchSizer sizer = BatchSizer.fixed(100);
+        sizer.onBatch(100, 100, Long.MAX_VALUE, true);
+        assertEquals(100, sizer.current());
+    }
+}
@@ -0,0 +1,80 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestBrokerCircuitBreaker {
+
+    private static List<MessageQueue> queues() {
+        List<MessageQueue> queues = new ArrayList<MessageQueue>();
+        for ( int i = 0; i < 4; i++ ) {
+            queues.add(new MessageQueue("T_TEST", "broker-" + (i % 2), i / 2));
+        }
+        return queues;
+    }
+
+    private static void openBroker1(BrokerCircuitBreaker breaker) {
+        for ( int i = 0; i < 20; i++ ) {
+            breaker.record("broker-0", 1000, true, false);
+            breaker.record("broker-1", 500000, true, false);
+        }
+    }
+
+    @Test
+    public void testOpenProbeAndClose() throws Exception {
+        RocketMQSinkCounter counter = new RocketMQSinkCounter("test-breaker");
+        BrokerCircuitBreaker breaker = new BrokerCircuitBreaker(100, 0.5, 50, 2, counter);
+        List<MessageQueue> queues = queues();
+        openBroker1(breaker);
+        assertTrue(breaker.isClosed("broker-0"));
+        assertFalse(breaker.isClosed("broker-1"));
+        List<MessageQueue> available = breaker.available(queues);
+        assertEquals(2, available.size());
+        for ( MessageQueue queue : available ) {
+            assertEquals("broker-0", queue.getBrokerName());
+        }
+        assertNull(breaker.probe(queues));
+
+        Thread.sleep(60);
+        // 选出探测queue不占用名额, 发送时才占用
+        assertEquals("broker-1", breaker.probe(queues).getBrokerName());
+        assertEquals("broker-1", breaker.probe(queues).getBrokerName());
+        assertTrue(breaker.tryProbe("broker-1"));
+        assertTrue(breaker.tryProbe("broker-1"));
+        assertFalse(breaker.tryProbe("broker-1"));
+        assertNull(breaker.probe(queues));
+
+        // 打开前发出的消息的回调不算探测结果
+        breaker.record("broker-1", 1000, true, false);
+        breaker.record("broker-1", 1000, true, true);
+        assertFalse(breaker.isClosed("broker-1"));
+        breaker.record("broker-1", 1000, true, true);
+        assertTrue(breaker.isClosed("broker-1"));
+        assertEquals(4, breaker.available(queues).size());
+    }
+
+    @Test
+    public void testLostProbesReopen() throws Exception {
+        RocketMQSinkCounter counter = new RocketMQSinkCounter("test-breaker-lost");
+        BrokerCircuitBreaker breaker = new BrokerCircuitBreaker(100, 0.5, 50, 1, counter);
+        List<MessageQueue> queues = queues();
+        openBroker1(breaker);
+        Thread.sleep(60);
+        assertEquals("broker-1", breaker.probe(queues).getBrokerName());
+        assertTrue(breaker.tryProbe("broker-1"));
+        Thread.sleep(60);
+        // 探测结果没有按时返回, 重新打开
+        assertNull(breaker.probe(queues));
+        assertEquals(2, counter.getBreakerOpenedCount());
+        Thread.sleep(60);
+        assertEquals("broker-1", breaker.probe(queues).getBrokerName());
+    }
+}
@@ -0,0 +1,86 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestEventFilter {
+
+    private static final String[] PATTERNS = {
+            "^GET /health",
+            "GET /health.*",
+            ".*\\.png",
+            ".*error.*",
+            ".*error.*|.*timeout.*|^POST .*",
+            "abc\\.def",
+            ".*",
+            "^\\d+ .*",
+            ".*(warn|fatal).*",
+            ".*error.*|[0-9]+",
+    };
+
+    private static final String[] BODIES = {
+            "GET /health",
+            "GET /health?full=1",
+            "GET /index.png",
+            "an error occurred",
+            "read timeout after 3s",
+            "POST /api/login",
+            "abc.def",
+            "abcXdef",
+            "12345 started",
+            "12345",
+            "fatal: disk full",
+            "",
+            "日志 error 中文",
+    };
+
+    @Test
+    public void testBytesModeAgreesWithRegexMode() throws Exception {
+        for ( String pattern : PATTERNS ) {
+            EventFilter regexDeny = new EventFilter(null, pattern);
+            EventFilter bytesDeny = new EventFilter(null, pattern, true);
+            EventFilter regexAllow = new EventFilter(pattern, null);
+            EventFilter bytesAllow = new EventFilter(pattern, null, true);
+            for ( String body : BODIES ) {
+                byte[] bytes = body.getBytes("UTF-8");
+                assertEquals(pattern + " deny " + body, regexDeny.filter(bytes), bytesDeny.filter(bytes));
+                assertEquals(pattern + " allow " + body, regexAllow.filter(bytes), bytesAllow.filter(bytes));
+            }
+        }
+    }
+
+    @Test
+    public void testLiteralRulesDoNotFallBack() {
+        assertFalse(new ByteRule("^GET /health.*").hasFallback());
+        assertFalse(new ByteRule(".*error.*|.*timeout.*|abc\\.def").hasFallback());
+        assertTrue(new ByteRule(".*error.*|[0-9]+").hasFallback());
+        assertTrue(new ByteRule(".*(warn|fatal).*").hasFallback());
+    }
+
+    @Test
+    public void testDenyWinsOverAllow() throws Exception {
+        EventFilter filter = new EventFilter(".*GET.*", "^GET /health.*", true);
+        assertEquals(EventFilter.Verdict.DENIED, filter.filter("GET /health".getBytes("UTF-8")));
+        assertEquals(EventFilter.Verdict.ACCEPT, filter.filter("GET /index".getBytes("UTF-8")));
+        assertEquals(EventFilter.Verdict.NOT_ALLOWED, filter.filter("PUT /index".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void testAhoCorasickOverlappingLiterals() throws Exception {
+        List<byte[]> literals = new ArrayList<byte[]>();
+        literals.add("he".getBytes("UTF-8"));
+        literals.add("she".getBytes("UTF-8"));
+        literals.add("hers".getBytes("UTF-8"));
+        literals.add("his".getBytes("UTF-8"));
+        AhoCorasick automaton = new AhoCorasick(literals);
+        assertTrue(automaton.containsAny("ushers".getBytes("UTF-8")));
+        assertTrue(automaton.containsAny("ahis".getBytes("UTF-8")));
+        assertFalse(automaton.containsAny("hsi h e".getBytes("UTF-8")));
+    }
+}
@@ -0,0 +1,60 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestHeaderTemplate {
+
+    @Test
+    public void testConstant() {
+        HeaderTemplate template = HeaderTemplate.compile("T_TEST");
+        assertTrue(template.isConstant());
+        assertSame(template.render(null), template.render(Collections.singletonMap("app", "a")));
+        assertEquals("T_TEST", template.renderStrict(null));
+    }
+
+    @Test
+    public void testHeadersAndDefaults() {
+        HeaderTemplate template = HeaderTemplate.compile("T_${app}_${level:INFO}");
+        assertFalse(template.isConstant());
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("app", "web");
+        assertEquals("T_web_INFO", template.render(headers));
+        headers.put("level", "WARN");
+        assertEquals("T_web_WARN", template.renderStrict(headers));
+    }
+
+    @Test
+    public void testMissingHeader() {
+        HeaderTemplate template = HeaderTemplate.compile("T_${app}");
+        assertEquals("T_", template.render(Collections.<String, String>emptyMap()));
+        // 没有默认值的header缺失或为空时没有可用的topic
+        assertNull(template.renderStrict(Collections.<String, String>emptyMap()));
+        assertNull(template.renderStrict(Collections.singletonMap("app", "")));
+        assertNull(template.renderStrict(null));
+        assertEquals("T_", HeaderTemplate.compile("T_${app:}").renderStrict(null));
+    }
+
+    @Test
+    public void testValidTopic() {
+        assertTrue(HeaderTemplate.isValidTopic("T_web-1%a|b"));
+        assertFalse(HeaderTemplate.isValidTopic(null));
+        assertFalse(HeaderTemplate.isValidTopic(""));
+        assertFalse(HeaderTemplate.isValidTopic("T web"));
+        assertFalse(HeaderTemplate.isValidTopic("T.web"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnclosedPlaceholder() {
+        HeaderTemplate.compile("T_${app");
+    }
+}
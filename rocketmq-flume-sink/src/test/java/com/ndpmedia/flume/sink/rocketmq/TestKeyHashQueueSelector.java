@@ -0,0 +1,35 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TestKeyHashQueueSelector {
+
+    @Test
+    public void testHashIsMurmur3OverChars() {
+        String[] keys = {"", "a", "ab", "abc", "session-0001", "用户-42"};
+        for ( String key : keys ) {
+            assertEquals(key, Hashing.murmur3_32().hashString(key).asInt(), KeyHashQueueSelector.hash(key));
+        }
+    }
+
+    @Test
+    public void testSameKeySameQueue() {
+        List<MessageQueue> queues = new ArrayList<MessageQueue>();
+        for ( int i = 0; i < 8; i++ ) {
+            queues.add(new MessageQueue("T_TEST", "broker-" + (i % 2), i / 2));
+        }
+        KeyHashQueueSelector selector = new KeyHashQueueSelector();
+        for ( int i = 0; i < 100; i++ ) {
+            String key = "key-" + i;
+            assertSame(selector.select(queues, null, key), selector.select(queues, null, key));
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogHistogram {
+
+    @Test
+    public void testBucketsCoverValues() {
+        long[] values = {0, 1, 7, 8, 15, 16, 17, 100, 1000, 123456789L, Long.MAX_VALUE};
+        for ( long value : values ) {
+            int index = LogHistogram.indexOf(value);
+            assertTrue(value + " in bucket " + index, value <= LogHistogram.highestOf(index));
+            if ( index > 0 ) {
+                assertTrue(value + " above bucket " + (index - 1), value > LogHistogram.highestOf(index - 1));
+            }
+        }
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LogHistogram histogram = new LogHistogram(4);
+        for ( int i = 1; i <= 10000; i++ ) {
+            histogram.record(i);
+        }
+        LogHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertNear(5000, snapshot.getValueAt(0.5));
+        assertNear(9900, snapshot.getValueAt(0.99));
+        assertNear(9990, snapshot.getValueAt(0.999));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getValueAt(0.5));
+    }
+
+    private static void assertNear(long expected, long actual) {
+        assertTrue(expected + " vs " + actual, actual >= expected && actual <= expected * 1.125);
+    }
+}
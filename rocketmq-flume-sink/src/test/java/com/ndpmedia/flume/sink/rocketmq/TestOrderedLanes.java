@@ -0,0 +1,139 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.MQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import com.alibaba.rocketmq.common.message.Message;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestOrderedLanes {
+
+    @Test
+    public void testFailedLaneHeldNextToHealthyOnes() throws Exception {
+        final List<MessageQueue> queues = new ArrayList<MessageQueue>();
+        for ( int i = 0; i < 4; i++ ) {
+            queues.add(new MessageQueue("T_TEST", "broker-a", i));
+        }
+        final Map<MessageQueue, List<String>> sent = new HashMap<MessageQueue, List<String>>();
+        final MessageQueue[] failing = new MessageQueue[1];
+        MQProducer producer = (MQProducer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {MQProducer.class}, new InvocationHandler() {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ( method.getName().equals("fetchPublishMessageQueues") ) {
+                            return new ArrayList<MessageQueue>(queues);
+                        }
+                        if ( method.getName().equals("send") && args.length == 3 && args[2] instanceof SendCallback ) {
+                            MessageQueue queue = (MessageQueue) args[1];
+                            SendCallback callback = (SendCallback) args[2];
+                            if ( queue.equals(failing[0]) ) {
+                                callback.onException(new RuntimeException("broker down"));
+                                return null;
+                            }
+                            List<String> bodies = sent.get(queue);
+                            if ( null == bodies ) {
+                                bodies = new ArrayList<String>();
+                                sent.put(queue, bodies);
+                            }
+                            bodies.add(new String(((Message) args[0]).getBody(), "UTF-8"));
+                            SendResult result = new SendResult();
+                            result.setSendStatus(SendStatus.SEND_OK);
+                            callback.onSuccess(result);
+                        }
+                        return null;
+                    }
+                });
+
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RocketMQSinkConstant.TOPIC, "T_TEST");
+        config.put(RocketMQSinkConstant.PARTITION_KEY_HEADER, "k");
+        config.put(RocketMQSinkConstant.ORDERED, "true");
+        config.put(RocketMQSinkConstant.RETRY_BUDGET_PREFIX + "EXCEPTION", "0");
+        RocketMQSink sink = new RocketMQSink();
+        sink.configure(new Context(config));
+        set(sink, "producers", new ProducerPool(Collections.singletonList(producer), ProducerPool.ROUND_ROBIN));
+        TopicRouteCache routeCache = new TopicRouteCache(producer, 30000, 16);
+        set(sink, "routeCache", routeCache);
+        failing[0] = new KeyHashQueueSelector().select(routeCache.getQueues("T_TEST"), null, "k0");
+
+        Map<String, String> channelConfig = new HashMap<String, String>();
+        channelConfig.put("capacity", "100");
+        channelConfig.put("transactionCapacity", "100");
+        Channel channel = new MemoryChannel();
+        Configurables.configure(channel, new Context(channelConfig));
+        channel.start();
+        sink.setChannel(channel);
+
+        List<String> expected = new ArrayList<String>();
+        for ( int i = 0; i < 16; i++ ) {
+            String key = "k" + (i % 8);
+            put(channel, key, key + "-" + i);
+            if ( failing[0].equals(new KeyHashQueueSelector().select(routeCache.getQueues("T_TEST"), null, key)) ) {
+                expected.add(key + "-" + i);
+            }
+        }
+        // 失败的queue不影响其他queue, 事务提交, 其他queue的消息不会重复发送
+        assertEquals(Sink.Status.READY, sink.process());
+        assertNull(sent.get(failing[0]));
+        int healthy = 0;
+        for ( List<String> bodies : sent.values() ) {
+            healthy += bodies.size();
+        }
+        assertEquals(16 - expected.size(), healthy);
+        assertEquals(0, size(channel));
+
+        // 恢复后先发送保留的消息, 再发送同一个key新的消息
+        failing[0] = null;
+        put(channel, "k0", "k0-late");
+        expected.add("k0-late");
+        sink.process();
+        assertEquals(expected, sent.get(new KeyHashQueueSelector().select(routeCache.getQueues("T_TEST"), null, "k0")));
+    }
+
+    private static void put(Channel channel, String key, String body) throws Exception {
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        channel.put(EventBuilder.withBody(body.getBytes("UTF-8"), Collections.singletonMap("k", key)));
+        tx.commit();
+        tx.close();
+    }
+
+    private static int size(Channel channel) {
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        int size = 0;
+        while ( null != channel.take() ) {
+            size++;
+        }
+        tx.rollback();
+        tx.close();
+        return size;
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,60 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.MQProducer;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+
+public class TestProducerPool {
+
+    @Test
+    public void testRoundRobin() {
+        ProducerPool pool = new ProducerPool(producers(3), ProducerPool.ROUND_ROBIN);
+        List<ProducerPool.Member> members = pool.getMembers();
+        for ( int i = 0; i < 6; i++ ) {
+            assertSame(members.get(i % 3), pool.select());
+        }
+    }
+
+    @Test
+    public void testLeastInFlight() {
+        ProducerPool pool = new ProducerPool(producers(3), ProducerPool.LEAST_IN_FLIGHT);
+        List<ProducerPool.Member> members = pool.getMembers();
+        members.get(0).acquire();
+        members.get(0).acquire();
+        members.get(1).acquire();
+        // 无论从哪个member开始扫描, 都选中没有在途消息的member
+        for ( int i = 0; i < 6; i++ ) {
+            assertSame(members.get(2), pool.select());
+        }
+        members.get(2).acquire();
+        members.get(2).acquire();
+        members.get(0).release();
+        members.get(0).release();
+        assertSame(members.get(0), pool.select());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownSelector() {
+        new ProducerPool(producers(1), "random");
+    }
+
+    private static List<MQProducer> producers(int count) {
+        List<MQProducer> producers = new ArrayList<MQProducer>(count);
+        for ( int i = 0; i < count; i++ ) {
+            producers.add((MQProducer) Proxy.newProxyInstance(TestProducerPool.class.getClassLoader(),
+                    new Class[] {MQProducer.class}, new InvocationHandler() {
+                        @Override public Object invoke(Object proxy, Method method, Object[] args) {
+                            return null;
+                        }
+                    }));
+        }
+        return producers;
+    }
+}
@@ -0,0 +1,160 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.client.producer.MQProducer;
+import com.alibaba.rocketmq.client.producer.SendCallback;
+import com.alibaba.rocketmq.client.producer.SendResult;
+import com.alibaba.rocketmq.client.producer.SendStatus;
+import org.apache.flume.Channel;
+import org.apache.flume.Context;
+import org.apache.flume.Sink;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.conf.Configurables;
+import org.apache.flume.event.EventBuilder;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRocketMQSink {
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    @Test
+    public void testBatchCounters() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RocketMQSinkConstant.TOPIC, "T_${type:TEST}");
+        config.put(RocketMQSinkConstant.DENY, "^drop$");
+        config.put(RocketMQSinkConstant.BATCH_SIZE, "10");
+        RocketMQSink sink = sink("counters", config);
+        Channel channel = channel();
+        sink.setChannel(channel);
+        for ( int i = 0; i < 20; i++ ) {
+            put(channel, "event-" + i, null);
+        }
+        put(channel, "drop", null);
+        // 渲染出的topic不合法且没有fallbackTopic, 丢弃
+        put(channel, "bad topic", "a b");
+        put(channel, "event-20", null);
+
+        assertEquals(Sink.Status.READY, sink.process());
+        assertEquals(Sink.Status.READY, sink.process());
+        assertEquals(Sink.Status.READY, sink.process());
+        assertEquals(Sink.Status.BACKOFF, sink.process());
+
+        RocketMQSinkCounter counter = (RocketMQSinkCounter) get(sink, "counter");
+        assertEquals(23, counter.getEventDrainAttemptCount());
+        assertEquals(21, counter.getEventDrainSuccessCount());
+        assertEquals(21, sent.get());
+        assertEquals(1, counter.getEventDeniedCount());
+        assertEquals(1, counter.getEventInvalidTopicCount());
+        assertEquals(2, counter.getBatchCompleteCount());
+        assertEquals(1, counter.getBatchUnderflowCount());
+        assertEquals(1, counter.getBatchEmptyCount());
+        assertEquals(0, counter.getRollbackCount());
+        assertEquals(0, counter.getInFlightCount());
+    }
+
+    @Test
+    public void testWorkersDrainAndJoinOnStop() throws Exception {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RocketMQSinkConstant.WORKER_COUNT, "3");
+        config.put(RocketMQSinkConstant.BATCH_SIZE, "5");
+        RocketMQSink sink = sink("workers", config);
+        Channel channel = channel();
+        sink.setChannel(channel);
+        for ( int i = 0; i < 50; i++ ) {
+            put(channel, "event-" + i, null);
+        }
+        sink.start();
+        List<Thread> workers = (List<Thread>) get(sink, "workers");
+        assertEquals(2, workers.size());
+        Thread[] threads = workers.toArray(new Thread[workers.size()]);
+        long deadline = System.currentTimeMillis() + 10000;
+        // SinkRunner线程由测试代替, 其余由worker线程发送
+        while ( sent.get() < 50 && System.currentTimeMillis() < deadline ) {
+            sink.process();
+        }
+        sink.stop();
+        for ( Thread thread : threads ) {
+            assertFalse(thread.getName(), thread.isAlive());
+        }
+        assertTrue(workers.isEmpty());
+
+        RocketMQSinkCounter counter = (RocketMQSinkCounter) get(sink, "counter");
+        assertEquals(50, sent.get());
+        assertEquals(50, counter.getEventDrainSuccessCount());
+        int events = 0;
+        for ( String worker : counter.getWorkerStats().split(";") ) {
+            events += Integer.parseInt(worker.substring(worker.indexOf("events=") + "events=".length()));
+        }
+        assertEquals(50, events);
+    }
+
+    private RocketMQSink sink(String name, Map<String, String> config) throws Exception {
+        MQProducer producer = (MQProducer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {MQProducer.class}, new InvocationHandler() {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ( !method.getName().equals("send") ) {
+                            return null;
+                        }
+                        sent.incrementAndGet();
+                        SendResult result = new SendResult();
+                        result.setSendStatus(SendStatus.SEND_OK);
+                        if ( args[args.length - 1] instanceof SendCallback ) {
+                            ((SendCallback) args[args.length - 1]).onSuccess(result);
+                            return null;
+                        }
+                        return result;
+                    }
+                });
+        RocketMQSink sink = new RocketMQSink();
+        sink.setName(name);
+        sink.configure(new Context(config));
+        set(sink, "producers", new ProducerPool(Collections.singletonList(producer), ProducerPool.ROUND_ROBIN));
+        set(sink, "routeCache", new TopicRouteCache(producer, 30000, 16));
+        return sink;
+    }
+
+    private static Channel channel() {
+        Map<String, String> channelConfig = new HashMap<String, String>();
+        channelConfig.put("capacity", "100");
+        channelConfig.put("transactionCapacity", "100");
+        Channel channel = new MemoryChannel();
+        Configurables.configure(channel, new Context(channelConfig));
+        channel.start();
+        return channel;
+    }
+
+    private static void put(Channel channel, String body, String type) throws Exception {
+        Map<String, String> headers = null == type ? Collections.<String, String>emptyMap() : Collections.singletonMap("type", type);
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        channel.put(EventBuilder.withBody(body.getBytes("UTF-8"), headers));
+        tx.commit();
+        tx.close();
+    }
+
+    private static Object get(Object target, String name) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,29 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSendStats {
+
+    @Test
+    public void testLeastRecentlySentTopicEvicted() throws Exception {
+        SendStats stats = new SendStats(60000, 2);
+        stats.recordSend("T_A", 100, 10);
+        Thread.sleep(2);
+        stats.recordSend("T_B", 100, 10);
+        Thread.sleep(2);
+        stats.recordSend("T_A", 100, 10);
+        Thread.sleep(2);
+        stats.recordSend("T_C", 100, 10);
+        assertEquals(2, stats.getTopicCount());
+        String topics = stats.describeTopicSize();
+        assertTrue(topics, topics.contains("T_A{"));
+        assertTrue(topics, topics.contains("T_C{"));
+        assertFalse(topics, topics.contains("T_B{"));
+        // 整个sink的统计不受影响
+        assertEquals(4, stats.size().getCount());
+    }
+}
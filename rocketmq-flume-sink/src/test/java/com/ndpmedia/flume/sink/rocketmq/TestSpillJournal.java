@@ -0,0 +1,91 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import com.alibaba.rocketmq.common.message.Message;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestSpillJournal {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = File.createTempFile("spill", "");
+        assertTrue(dir.delete());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if ( null != files ) {
+            for ( File file : files ) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testReplayInOrderAcrossRestartAndSegments() throws IOException {
+        SpillJournal journal = new SpillJournal(dir, 256, 8);
+        journal.open();
+        for ( int i = 0; i < 10; i++ ) {
+            assertTrue(journal.append(Arrays.asList(message(i))));
+        }
+        assertTrue(journal.getSegmentCount() > 1);
+        SpillJournal.Entry entry = journal.peek();
+        assertEquals("0", new String(entry.getMessage().getBody(), "UTF-8"));
+        journal.commit(entry.getNextOffset());
+        journal.close();
+
+        journal = new SpillJournal(dir, 256, 8);
+        journal.open();
+        for ( int i = 1; i < 10; i++ ) {
+            entry = journal.peek();
+            Message message = entry.getMessage();
+            assertEquals("T_TEST", message.getTopic());
+            assertEquals("tag", message.getTags());
+            assertEquals("app-" + i, message.getUserProperty("app"));
+            assertArrayEquals(String.valueOf(i).getBytes("UTF-8"), message.getBody());
+            journal.commit(entry.getNextOffset());
+        }
+        assertNull(journal.peek());
+        assertTrue(journal.isEmpty());
+        assertEquals(1, journal.getSegmentCount());
+        journal.close();
+    }
+
+    @Test
+    public void testFullJournalAppendsNothing() throws IOException {
+        SpillJournal journal = new SpillJournal(dir, 256, 2);
+        journal.open();
+        List<Message> batch = new ArrayList<Message>();
+        for ( int i = 0; i < 20; i++ ) {
+            batch.add(message(i));
+        }
+        assertFalse(journal.append(batch));
+        assertTrue(journal.isEmpty());
+        assertTrue(journal.append(batch.subList(0, 2)));
+        assertEquals("0", new String(journal.peek().getMessage().getBody(), "UTF-8"));
+        journal.close();
+    }
+
+    private static Message message(int i) throws IOException {
+        Message message = new Message("T_TEST", "tag", String.valueOf(i).getBytes("UTF-8"));
+        message.putUserProperty("app", "app-" + i);
+        return message;
+    }
+}
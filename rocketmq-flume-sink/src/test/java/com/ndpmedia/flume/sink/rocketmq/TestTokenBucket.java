@@ -0,0 +1,26 @@
+package com.ndpmedia.flume.sink.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestTokenBucket {
+
+    @Test
+    public void testBurstThenDebt() {
+        TokenBucket bucket = new TokenBucket(1000, 1000);
+        assertEquals(1000, bucket.available(5000));
+        assertEquals(10, bucket.available(10));
+
+        bucket.consume(1000);
+        assertEquals(0, bucket.available(10));
+
+        // 透支500个令牌, 约0.5秒内都没有额度
+        bucket.consume(500);
+        assertEquals(0, bucket.available(10));
+        long throttled = bucket.claimThrottledNanos();
+        assertTrue(String.valueOf(throttled), throttled > 400000000L && throttled <= 500000000L);
+        assertEquals(0, bucket.claimThrottledNanos());
+    }
+}
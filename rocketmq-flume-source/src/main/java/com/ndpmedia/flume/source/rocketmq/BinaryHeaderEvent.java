@@ -0,0 +1,118 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.apache.flume.Event;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BinaryHeaderEvent Created with rocketmq-flume.
+ *
+ * An event from a message whose headers RocketMQSink encoded in front of the body (the
+ * envelope format with one event). Only the body offset is found up front; the headers are
+ * decoded on the first getHeaders() and the body is copied out on the first getBody().
+ */
+public class BinaryHeaderEvent implements Event {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] raw;
+
+    private final int bodyOffset;
+
+    private Map<String, String> baseHeaders;
+
+    private Map<String, String> headers;
+
+    private byte[] body;
+
+    /**
+     * @param baseHeaders the message-level headers, overridden by the encoded ones
+     */
+    public BinaryHeaderEvent(byte[] raw, Map<String, String> baseHeaders) throws IOException {
+        this.raw = raw;
+        this.baseHeaders = baseHeaders;
+        int[] pos = {0};
+        int count = readVarint(raw, pos);
+        for ( int i = 0; i < count * 2; i++ ) {
+            pos[0] += readLength(raw, pos);
+        }
+        int length = readLength(raw, pos);
+        if ( pos[0] + length != raw.length ) {
+            throw new IOException("Corrupt header prefix, body of " + length + " bytes at " + pos[0] + " of " + raw.length);
+        }
+        this.bodyOffset = pos[0];
+    }
+
+    @Override public Map<String, String> getHeaders() {
+        if ( null == headers ) {
+            Map<String, String> decoded = new HashMap<String, String>(baseHeaders);
+            int[] pos = {0};
+            try {
+                int count = readVarint(raw, pos);
+                for ( int i = 0; i < count; i++ ) {
+                    decoded.put(readString(raw, pos), readString(raw, pos));
+                }
+            } catch ( IOException e ) {
+                // 构造时已校验过
+                throw new IllegalStateException(e);
+            }
+            headers = decoded;
+            baseHeaders = null;
+        }
+        return headers;
+    }
+
+    @Override public void setHeaders(Map<String, String> headers) {
+        this.headers = headers;
+        this.baseHeaders = null;
+    }
+
+    @Override public byte[] getBody() {
+        if ( null == body ) {
+            body = Arrays.copyOfRange(raw, bodyOffset, raw.length);
+        }
+        return body;
+    }
+
+    @Override public void setBody(byte[] body) {
+        this.body = body;
+    }
+
+    @Override public String toString() {
+        return "[Event headers = " + getHeaders() + ", body.length = " + getBody().length + " ]";
+    }
+
+    private static String readString(byte[] buf, int[] pos) throws IOException {
+        int length = readLength(buf, pos);
+        String value = new String(buf, pos[0], length, UTF8);
+        pos[0] += length;
+        return value;
+    }
+
+    private static int readLength(byte[] buf, int[] pos) throws IOException {
+        int length = readVarint(buf, pos);
+        if ( length < 0 || length > buf.length - pos[0] ) {
+            throw new IOException("Corrupt header prefix, length " + length + " at " + pos[0] + " of " + buf.length);
+        }
+        return length;
+    }
+
+    private static int readVarint(byte[] buf, int[] pos) throws IOException {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 ) {
+            if ( pos[0] >= buf.length ) {
+                throw new IOException("Corrupt header prefix, truncated at " + pos[0]);
+            }
+            byte b = buf[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 ) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt header prefix, bad varint at " + pos[0]);
+    }
+}
@@ -0,0 +1,59 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * BodyCodec Created with rocketmq-flume.
+ *
+ * Inflates message bodies compressed by RocketMQSink, which names the codec in the
+ * {@link RocketMQSourceConstant#CODEC_PROPERTY} property.
+ */
+public enum BodyCodec {
+
+    NONE {
+        @Override public byte[] decompress(byte[] body) {
+            return body;
+        }
+    },
+
+    GZIP {
+        @Override public byte[] decompress(byte[] body) throws IOException {
+            return readFully(new GZIPInputStream(new ByteArrayInputStream(body)), body.length * 4);
+        }
+    },
+
+    DEFLATE {
+        @Override public byte[] decompress(byte[] body) throws IOException {
+            return readFully(new InflaterInputStream(new ByteArrayInputStream(body)), body.length * 4);
+        }
+    },
+
+    SNAPPY {
+        @Override public byte[] decompress(byte[] body) throws IOException {
+            return Snappy.uncompress(body);
+        }
+    };
+
+    public abstract byte[] decompress(byte[] body) throws IOException;
+
+    private static byte[] readFully(InputStream in, int sizeHint) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+            byte[] buffer = new byte[4096];
+            int n;
+            while ( (n = in.read(buffer)) > 0 ) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
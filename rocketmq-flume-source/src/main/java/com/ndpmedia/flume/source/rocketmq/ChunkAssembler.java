@@ -0,0 +1,247 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * ChunkAssembler Created with rocketmq-flume.
+ *
+ * Puts the chunks of a message split by RocketMQSink back together. Incomplete groups are held
+ * at most timeoutMillis and in at most maxBytes in total; the oldest groups are dropped first.
+ * The sink sends all chunks of a group in one batch to one queue, so a group is normally
+ * complete within a pull or two. Groups are only kept in memory; so that a group incomplete when
+ * the source stops or the queue is rebalanced is pulled again, {@link #committable} keeps a queue's
+ * offset at the first chunk of such a group until the group is delivered or dropped.
+ */
+public class ChunkAssembler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChunkAssembler.class);
+
+    static class Group {
+
+        final byte[][] chunks;
+
+        final long createdAt;
+
+        int received;
+
+        final Hold hold;
+
+        Group(int count, Hold hold) {
+            this.chunks = new byte[count][];
+            this.createdAt = System.currentTimeMillis();
+            this.hold = hold;
+        }
+    }
+
+    /**
+     * The queue offsets of a group: the committed offset may not pass its first chunk until the
+     * event assembled from it has been delivered, which is known once the queue commits past the
+     * last chunk.
+     */
+    static class Hold {
+
+        final MessageQueue queue;
+
+        long firstOffset;
+
+        long lastOffset = -1;//组装完成时的分片offset, -1表示未完成
+
+        Hold(MessageQueue queue, long firstOffset) {
+            this.queue = queue;
+            this.firstOffset = firstOffset;
+        }
+    }
+
+    private final long maxBytes;
+
+    private final long timeoutMillis;
+
+    // 按创建顺序, 最早的组先超时或被淘汰
+    private final LinkedHashMap<String, Group> groups = new LinkedHashMap<String, Group>();
+
+    private final Map<MessageQueue, Map<String, Hold>> holds = new HashMap<MessageQueue, Map<String, Hold>>();
+
+    private long bytes;
+
+    private long dropped;
+
+    public ChunkAssembler(long maxBytes, long timeoutMillis) {
+        this.maxBytes = maxBytes;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * A chunk whose queue offset is not tracked.
+     */
+    public byte[] offer(String groupId, int index, int count, byte[] chunk) {
+        return offer(null, -1, groupId, index, count, chunk);
+    }
+
+    /**
+     * @return the whole body once the last chunk of the group arrived, null before that.
+     */
+    public synchronized byte[] offer(MessageQueue queue, long queueOffset, String groupId, int index, int count, byte[] chunk) {
+        expire();
+        if ( count <= 0 || index < 0 || index >= count ) {
+            LOG.warn("Invalid chunk {}/{} of group {}, dropped", index, count, groupId);
+            return null;
+        }
+        Group group = groups.get(groupId);
+        if ( null == group ) {
+            if ( count == 1 ) {
+                return chunk;
+            }
+            group = new Group(count, hold(queue, queueOffset, groupId));
+            groups.put(groupId, group);
+        } else if ( group.chunks.length != count ) {
+            LOG.warn("Chunk count {} of group {} does not match {}, dropped", count, groupId, group.chunks.length);
+            return null;
+        }
+        if ( null != group.chunks[index] ) {
+            // 重复消费的分片
+            return null;
+        }
+        group.chunks[index] = chunk;
+        group.received++;
+        bytes += chunk.length;
+        if ( group.received < count ) {
+            evict();
+            return null;
+        }
+        groups.remove(groupId);
+        if ( null != group.hold ) {
+            if ( group.hold.queue.equals(queue) ) {
+                group.hold.lastOffset = queueOffset;
+            } else {
+                // 分片不在同一queue, 无法按offset判断是否已投递
+                release(group.hold, groupId);
+            }
+        }
+        int length = 0;
+        for ( byte[] part : group.chunks ) {
+            length += part.length;
+        }
+        byte[] body = new byte[length];
+        int pos = 0;
+        for ( byte[] part : group.chunks ) {
+            System.arraycopy(part, 0, body, pos, part.length);
+            pos += part.length;
+        }
+        bytes -= length;
+        return body;
+    }
+
+    /**
+     * The offset the queue may be committed to once the messages before nextOffset have been
+     * delivered: nextOffset, or the first chunk of the oldest group of the queue that has not been
+     * delivered whole.
+     */
+    public synchronized long committable(MessageQueue queue, long nextOffset) {
+        expire();
+        Map<String, Hold> queueHolds = holds.get(queue);
+        if ( null == queueHolds ) {
+            return nextOffset;
+        }
+        long offset = nextOffset;
+        for ( Iterator<Hold> it = queueHolds.values().iterator(); it.hasNext(); ) {
+            Hold hold = it.next();
+            if ( hold.lastOffset >= 0 && hold.lastOffset < nextOffset ) {
+                it.remove();
+            } else {
+                offset = Math.min(offset, hold.firstOffset);
+            }
+        }
+        if ( queueHolds.isEmpty() ) {
+            holds.remove(queue);
+        }
+        return offset;
+    }
+
+    private Hold hold(MessageQueue queue, long queueOffset, String groupId) {
+        if ( null == queue ) {
+            return null;
+        }
+        Map<String, Hold> queueHolds = holds.get(queue);
+        if ( null == queueHolds ) {
+            queueHolds = new HashMap<String, Hold>();
+            holds.put(queue, queueHolds);
+        }
+        Hold hold = queueHolds.get(groupId);
+        if ( null == hold ) {
+            hold = new Hold(queue, queueOffset);
+            queueHolds.put(groupId, hold);
+        } else {
+            // 组装完成但尚未提交时又拉取到同一组的分片(重新拉取)
+            hold.firstOffset = Math.min(hold.firstOffset, queueOffset);
+            hold.lastOffset = -1;
+        }
+        return hold;
+    }
+
+    private void release(Hold hold, String groupId) {
+        Map<String, Hold> queueHolds = holds.get(hold.queue);
+        if ( null != queueHolds && queueHolds.get(groupId) == hold ) {
+            queueHolds.remove(groupId);
+            if ( queueHolds.isEmpty() ) {
+                holds.remove(hold.queue);
+            }
+        }
+    }
+
+    public synchronized int getPendingGroups() {
+        return groups.size();
+    }
+
+    public synchronized long getPendingBytes() {
+        return bytes;
+    }
+
+    public synchronized long getDroppedGroups() {
+        return dropped;
+    }
+
+    private void expire() {
+        long deadline = System.currentTimeMillis() - timeoutMillis;
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while ( it.hasNext() ) {
+            Map.Entry<String, Group> entry = it.next();
+            if ( entry.getValue().createdAt > deadline ) {
+                break;
+            }
+            LOG.warn("Chunk group {} timed out with {}/{} chunks, dropped", entry.getKey(), entry.getValue().received, entry.getValue().chunks.length);
+            drop(it, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Group>> it = groups.entrySet().iterator();
+        while ( bytes > maxBytes && it.hasNext() ) {
+            Map.Entry<String, Group> entry = it.next();
+            LOG.warn("Chunk buffer over {} bytes, group {} dropped", maxBytes, entry.getKey());
+            drop(it, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * A dropped group no longer holds its queue's offset back.
+     */
+    private void drop(Iterator<Map.Entry<String, Group>> it, String groupId, Group group) {
+        for ( byte[] chunk : group.chunks ) {
+            if ( null != chunk ) {
+                bytes -= chunk.length;
+            }
+        }
+        if ( null != group.hold ) {
+            release(group.hold, groupId);
+        }
+        dropped++;
+        it.remove();
+    }
+}
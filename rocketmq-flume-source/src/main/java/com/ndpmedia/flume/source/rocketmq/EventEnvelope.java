@@ -0,0 +1,85 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.apache.flume.Event;
+import org.apache.flume.event.SimpleEvent;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * EventEnvelope Created with rocketmq-flume.
+ *
+ * Reads the events RocketMQSink packed into one message body: per event a varint header count,
+ * varint-length-prefixed UTF-8 header keys and values, and a varint-length-prefixed body. The
+ * body is walked once and every event body is copied straight out of it.
+ */
+public class EventEnvelope {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private EventEnvelope(byte[] buf) {
+        this.buf = buf;
+    }
+
+    /**
+     * @param baseHeaders put into every event first, the packed headers of the event win
+     * @param expected the event count from the message property, only used to size the list
+     */
+    public static List<Event> unpack(byte[] body, Map<String, String> baseHeaders, int expected) throws IOException {
+        EventEnvelope envelope = new EventEnvelope(body);
+        List<Event> events = new ArrayList<Event>(Math.max(1, expected));
+        while ( envelope.pos < body.length ) {
+            int headerCount = envelope.readVarint();
+            Map<String, String> headers = new HashMap<String, String>(baseHeaders);
+            for ( int i = 0; i < headerCount; i++ ) {
+                headers.put(envelope.readString(), envelope.readString());
+            }
+            int length = envelope.readLength();
+            Event event = new SimpleEvent();
+            event.setHeaders(headers);
+            event.setBody(Arrays.copyOfRange(body, envelope.pos, envelope.pos + length));
+            envelope.pos += length;
+            events.add(event);
+        }
+        return events;
+    }
+
+    private String readString() throws IOException {
+        int length = readLength();
+        String value = new String(buf, pos, length, UTF8);
+        pos += length;
+        return value;
+    }
+
+    private int readLength() throws IOException {
+        int length = readVarint();
+        if ( length < 0 || length > buf.length - pos ) {
+            throw new IOException("Corrupt envelope, length " + length + " at " + pos + " of " + buf.length);
+        }
+        return length;
+    }
+
+    private int readVarint() throws IOException {
+        int value = 0;
+        for ( int shift = 0; shift < 35; shift += 7 ) {
+            if ( pos >= buf.length ) {
+                throw new IOException("Corrupt envelope, truncated at " + pos);
+            }
+            byte b = buf[pos++];
+            value |= (b & 0x7F) << shift;
+            if ( (b & 0x80) == 0 ) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt envelope, bad varint at " + pos);
+    }
+}
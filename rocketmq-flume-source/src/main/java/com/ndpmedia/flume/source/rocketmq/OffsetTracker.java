@@ -0,0 +1,177 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.client.exception.MQClientException;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OffsetTracker Created with rocketmq-flume.
+ *
+ * The authoritative next offset of every assigned queue. A queue's offset is read from the offset
+ * store once, when it is assigned (or first used), advanced in memory as batches are committed
+ * to the channel and written back to the store by a timer thread, so the pull loop never waits
+ * for the store and never sees it lag behind. A revoked queue's offset is written once more when
+ * the revoke is seen, so its new owner starts where this one stopped; commits of the queue that
+ * arrive after that (a batch pulled before the rebalance) are dropped, so a queue now owned by
+ * another consumer is never written back with a stale offset. The offset written
+ * back may lag behind the next offset to pull, when messages before it must be pulled again after
+ * a restart (the chunks of an event not assembled yet).
+ */
+public class OffsetTracker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OffsetTracker.class);
+
+    public interface Store {
+
+        long fetch(MessageQueue queue) throws MQClientException;
+
+        void update(MessageQueue queue, long offset) throws MQClientException;
+    }
+
+    private final Store store;
+
+    private final Map<MessageQueue, Long> offsets = new HashMap<MessageQueue, Long>();
+
+    private final Map<MessageQueue, Long> storeOffsets = new HashMap<MessageQueue, Long>();//写回offset store的offset, 与offsets不同时才有
+
+    private final Set<MessageQueue> dirty = new HashSet<MessageQueue>();
+
+    private Set<MessageQueue> assigned;// null表示尚未分配, 接受所有queue
+
+    private volatile ScheduledExecutorService timer;
+
+    public OffsetTracker(Store store) {
+        this.store = store;
+    }
+
+    public void start(final String name, long flushIntervalMillis) {
+        timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-offset-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override public void run() {
+                flush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop the timer and write what is left.
+     */
+    public void stop() {
+        ScheduledExecutorService t = timer;
+        if ( null != t ) {
+            t.shutdown();
+            try {
+                t.awaitTermination(1, TimeUnit.SECONDS);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Seed the newly assigned queues from the store, write the committed offsets of the revoked
+     * ones not written yet and drop them.
+     */
+    public synchronized void assign(Set<MessageQueue> queues) throws MQClientException {
+        assigned = new HashSet<MessageQueue>(queues);
+        for ( MessageQueue queue : dirty ) {
+            if ( !assigned.contains(queue) ) {
+                write(queue);
+            }
+        }
+        offsets.keySet().retainAll(assigned);
+        storeOffsets.keySet().retainAll(assigned);
+        dirty.retainAll(assigned);
+        for ( MessageQueue queue : assigned ) {
+            get(queue);
+        }
+    }
+
+    /**
+     * @return the next offset to pull, read from the store the first time a queue is seen; a queue
+     * outside the assignment is read from the store every time
+     */
+    public synchronized long get(MessageQueue queue) throws MQClientException {
+        Long offset = offsets.get(queue);
+        if ( null == offset ) {
+            offset = Math.max(0, store.fetch(queue));
+            if ( isAssigned(queue) ) {
+                offsets.put(queue, offset);
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * The messages before offset have been delivered to the channel; ignored for a revoked queue.
+     */
+    public void commit(MessageQueue queue, long offset) {
+        commit(queue, offset, offset);
+    }
+
+    /**
+     * Pull on from offset, but write back only storeOffset, from where a restart pulls again.
+     */
+    public synchronized void commit(MessageQueue queue, long offset, long storeOffset) {
+        if ( !isAssigned(queue) ) {
+            LOG.debug("drop offset {} of revoked queue {}", offset, queue);
+            return;
+        }
+        offsets.put(queue, offset);
+        if ( storeOffset != offset ) {
+            storeOffsets.put(queue, storeOffset);
+        } else {
+            storeOffsets.remove(queue);
+        }
+        dirty.add(queue);
+    }
+
+    /**
+     * Write the offsets committed since the last flush; a failed write is retried by the next one.
+     * Holds the lock while writing so a queue revoked meanwhile is not written after the revoke.
+     */
+    public synchronized void flush() {
+        for ( Iterator<MessageQueue> it = dirty.iterator(); it.hasNext(); ) {
+            if ( write(it.next()) ) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean write(MessageQueue queue) {
+        try {
+            Long storeOffset = storeOffsets.get(queue);
+            store.update(queue, null == storeOffset ? offsets.get(queue) : storeOffset);
+            return true;
+        } catch ( Exception e ) {
+            LOG.warn("update offset of {} failed: {}", queue, e.toString());
+            return false;
+        }
+    }
+
+    private boolean isAssigned(MessageQueue queue) {
+        return null == assigned || assigned.contains(queue);
+    }
+
+    public synchronized int size() {
+        return offsets.size();
+    }
+}
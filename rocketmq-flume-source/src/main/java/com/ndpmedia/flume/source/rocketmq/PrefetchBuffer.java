@@ -0,0 +1,119 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * PrefetchBuffer Created with rocketmq-flume.
+ *
+ * A FIFO of pulled batches bounded by the number of events and by bytes, between the threads
+ * that pull from the brokers and the thread that puts into the channel. A batch is admitted
+ * when the buffer is under both limits, so a single batch larger than a limit still gets
+ * through an empty buffer.
+ */
+public class PrefetchBuffer<T> {
+
+    private final int maxEvents;
+
+    private final long maxBytes;
+
+    private final Deque<Slot<T>> slots = new ArrayDeque<Slot<T>>();
+
+    private int events;
+
+    private long bytes;
+
+    public PrefetchBuffer(int maxEvents, long maxBytes) {
+        if ( maxEvents <= 0 || maxBytes <= 0 ) {
+            throw new IllegalArgumentException("maxEvents and maxBytes should be greater than 0.");
+        }
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Wait at most timeoutMillis for room.
+     *
+     * @return false if the buffer stayed full
+     */
+    public synchronized boolean put(T item, int count, long size, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ( isFull() ) {
+            long wait = deadline - System.currentTimeMillis();
+            if ( wait <= 0 ) {
+                return false;
+            }
+            wait(wait);
+        }
+        add(item, count, size);
+        return true;
+    }
+
+    /**
+     * Add without waiting, even over the limits; for callers that must not block and bound
+     * themselves by checking {@link #isFull()} first.
+     */
+    public synchronized void add(T item, int count, long size) {
+        slots.addLast(new Slot<T>(item, count, size));
+        events += count;
+        bytes += size;
+        notifyAll();
+    }
+
+    public synchronized T poll(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while ( slots.isEmpty() ) {
+            long wait = deadline - System.currentTimeMillis();
+            if ( wait <= 0 ) {
+                return null;
+            }
+            wait(wait);
+        }
+        return poll();
+    }
+
+    public synchronized T poll() {
+        Slot<T> slot = slots.pollFirst();
+        if ( null == slot ) {
+            return null;
+        }
+        events -= slot.count;
+        bytes -= slot.size;
+        notifyAll();
+        return slot.item;
+    }
+
+    public synchronized boolean isFull() {
+        return events >= maxEvents || bytes >= maxBytes;
+    }
+
+    public synchronized void clear() {
+        slots.clear();
+        events = 0;
+        bytes = 0;
+        notifyAll();
+    }
+
+    public synchronized int getEvents() {
+        return events;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static class Slot<T> {
+
+        final T item;
+
+        final int count;
+
+        final long size;
+
+        Slot(T item, int count, long size) {
+            this.item = item;
+            this.count = count;
+            this.size = size;
+        }
+    }
+}
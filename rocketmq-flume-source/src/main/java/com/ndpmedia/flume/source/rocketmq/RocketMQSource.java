@@ -1,6 +1,7 @@
 package com.ndpmedia.flume.source.rocketmq;
 
 import com.alibaba.rocketmq.client.consumer.MQPullConsumer;
+import com.alibaba.rocketmq.client.consumer.PullCallback;
 import com.alibaba.rocketmq.client.consumer.MessageQueueListener;
 import com.alibaba.rocketmq.client.consumer.PullResult;
 import com.alibaba.rocketmq.client.exception.MQBrokerException;
@@ -9,18 +10,26 @@ import com.alibaba.rocketmq.common.message.MessageExt;
 import com.alibaba.rocketmq.common.message.MessageQueue;
 import com.alibaba.rocketmq.remoting.exception.RemotingException;
 import com.google.common.base.Preconditions;
+import org.apache.flume.ChannelException;
 import org.apache.flume.Context;
 import org.apache.flume.Event;
 import org.apache.flume.EventDeliveryException;
 import org.apache.flume.PollableSource;
 import org.apache.flume.conf.Configurable;
 import org.apache.flume.event.SimpleEvent;
-import org.apache.flume.instrumentation.SourceCounter;
 import org.apache.flume.source.AbstractSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static org.apache.flume.source.PollableSourceConstants.BACKOFF_SLEEP_INCREMENT;
@@ -49,10 +58,38 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
 
     private AtomicReference<Set<MessageQueue>> messageQueues = new AtomicReference<Set<MessageQueue>>();
 
-    private SourceCounter counter;
+    private RocketMQSourceCounter counter;
+
+    private TagFilter tagFilter;//tag表达式解析为hash集合, 在客户端再过滤一次
 
     private int pullBatchSize;
 
+    private int batchSize;//每次写入channel的最多event数, 打包的消息拆开后可能远多于pullBatchSize
+
+    private ChunkAssembler chunkAssembler;//组装RocketMQSink拆分的分片消息
+
+    private OffsetTracker offsets;//各queue的offset以内存为准, 定时写回offset store
+
+    private long offsetFlushInterval;
+
+    private int pullThreads;//>0时按broker分组由这些线程并行拉取, 0则在process线程中依次拉取
+
+    private boolean asyncPull;//每个queue保持一个异步长轮询, 结果交给process线程
+
+    private final Map<MessageQueue, AsyncPoller> pollers = new ConcurrentHashMap<MessageQueue, AsyncPoller>();
+
+    private ScheduledExecutorService pullRetryTimer;//异步长轮询失败后延迟重试
+
+    private final Queue<AsyncPoller> parked = new ConcurrentLinkedQueue<AsyncPoller>();//预取缓冲满时暂停拉取的queue
+
+    private PrefetchBuffer<PulledBatch> handoff;//拉取线程(或异步长轮询回调)交给process线程的批次, 按event数及字节数限制
+
+    private final List<PulledBatch> undelivered = new ArrayList<PulledBatch>();//channel未接收的批次, 下次process重新投递
+
+    private final List<Thread> pullers = new ArrayList<Thread>();
+
+    private volatile boolean running;
+
     private Long backoffSleepIncrement;
 
     private Long maxBackOffSleepInterval;
@@ -64,14 +101,47 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
         backoffSleepIncrement = context.getLong(BACKOFF_SLEEP_INCREMENT, DEFAULT_BACKOFF_SLEEP_INCREMENT);
         maxBackOffSleepInterval = context.getLong(MAX_BACKOFF_SLEEP, DEFAULT_MAX_BACKOFF_SLEEP);
         pullBatchSize = context.getInteger(RocketMQSourceConstant.PULL_BATCH_SIZE, RocketMQSourceConstant.DEFAULT_PULL_BATCH_SIZE);
+        batchSize = context.getInteger(RocketMQSourceConstant.BATCH_SIZE, RocketMQSourceConstant.DEFAULT_BATCH_SIZE);
+        Preconditions.checkArgument(batchSize > 0, "batchSize must be greater than 0");
         consumer = RocketMQSourceUtil.getConsumerInstance(context);
+        chunkAssembler = new ChunkAssembler(
+                context.getLong(RocketMQSourceConstant.CHUNK_BUFFER_SIZE, RocketMQSourceConstant.DEFAULT_CHUNK_BUFFER_SIZE),
+                context.getLong(RocketMQSourceConstant.CHUNK_TIMEOUT, RocketMQSourceConstant.DEFAULT_CHUNK_TIMEOUT));
+
+        offsets = new OffsetTracker(new OffsetTracker.Store() {
+            @Override public long fetch(MessageQueue queue) throws MQClientException {
+                return consumer.fetchConsumeOffset(queue, false);
+            }
+
+            @Override public void update(MessageQueue queue, long offset) throws MQClientException {
+                consumer.updateConsumeOffset(queue, offset);
+            }
+        });
+        offsetFlushInterval = context.getLong(RocketMQSourceConstant.OFFSET_FLUSH_INTERVAL, RocketMQSourceConstant.DEFAULT_OFFSET_FLUSH_INTERVAL);
+        pullThreads = context.getInteger(RocketMQSourceConstant.PULL_THREADS, 0);
+        Preconditions.checkArgument(pullThreads >= 0, "pullThreads must not be negative");
+        asyncPull = context.getBoolean(RocketMQSourceConstant.ASYNC_PULL, false);
+        Preconditions.checkArgument(!asyncPull || pullThreads == 0, "asyncPull and pullThreads can not be used together");
+        if ( !asyncPull && pullThreads == 0 && context.getBoolean(RocketMQSourceConstant.PREFETCH, false) ) {
+            // 由一个拉取线程预取, 拉取下一批与写入channel并行
+            pullThreads = 1;
+        }
+        if ( asyncPull || pullThreads > 0 ) {
+            handoff = new PrefetchBuffer<PulledBatch>(
+                    context.getInteger(RocketMQSourceConstant.PREFETCH_MAX_EVENTS, RocketMQSourceConstant.DEFAULT_PREFETCH_MAX_EVENTS),
+                    context.getLong(RocketMQSourceConstant.PREFETCH_MAX_BYTES, RocketMQSourceConstant.DEFAULT_PREFETCH_MAX_BYTES));
+        } else {
+            handoff = null;
+        }
 
         if ( null == counter ) {
-            counter = new SourceCounter(getName());
+            counter = new RocketMQSourceCounter(getName());
         }
+        tagFilter = new TagFilter(tag, RocketMQSourceConstant.MAX_FILTERED_TAGS);
+        counter.setTagFilter(tagFilter);
     }
 
-    private boolean handlePullResult(PullResult pullResult, List<Event> events) {
+    private boolean handlePullResult(MessageQueue queue, PullResult pullResult, List<Event> events) {
         Preconditions.checkNotNull(events);
         Preconditions.checkNotNull(pullResult);
 
@@ -81,8 +151,14 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
             LOG.debug("Pulled {} messages", messages.size());
             for ( MessageExt messageExt : messages ) {
                 // filter by tag.
-                if ( null != tag && !tag.trim().equals("*") ) {
-                    if ( !tag.trim().equals(messageExt.getTags()) ) {
+                if ( !tagFilter.accept(messageExt.getTags()) ) {
+                    continue;
+                }
+                byte[] body = messageExt.getBody();
+                String chunkGroup = messageExt.getProperty(RocketMQSourceConstant.CHUNK_GROUP_PROPERTY);
+                if ( null != chunkGroup ) {
+                    body = unchunk(queue, messageExt, chunkGroup);
+                    if ( null == body ) {
                         continue;
                     }
                 }
@@ -92,8 +168,28 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
                 headers.put(RocketMQSourceConstant.TAG, tag);
                 headers.put(RocketMQSourceConstant.EXTRA, extra);
                 headers.putAll(messageExt.getProperties());
+                headers.remove(RocketMQSourceConstant.CHUNK_GROUP_PROPERTY);
+                headers.remove(RocketMQSourceConstant.CHUNK_INDEX_PROPERTY);
+                headers.remove(RocketMQSourceConstant.CHUNK_COUNT_PROPERTY);
+                body = decode(messageExt, body, headers);
+                String packed = headers.remove(RocketMQSourceConstant.PACK_PROPERTY);
+                if ( null != packed ) {
+                    unpack(messageExt, body, headers, packed, events);
+                    continue;
+                }
+                String headerEncoding = headers.remove(RocketMQSourceConstant.HEADERS_PROPERTY);
+                if ( null != headerEncoding ) {
+                    try {
+                        events.add(new BinaryHeaderEvent(body, headers));
+                        continue;
+                    } catch ( IOException e ) {
+                        // 原样投递, 保留属性以便下游识别
+                        LOG.error("Decode binary headers failed, msgId=" + messageExt.getMsgId(), e);
+                        headers.put(RocketMQSourceConstant.HEADERS_PROPERTY, headerEncoding);
+                    }
+                }
                 event.setHeaders(headers);
-                event.setBody(messageExt.getBody());
+                event.setBody(body);
                 events.add(event);
             }
             return true;
@@ -122,18 +218,69 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
         return false;
     }
 
+    /**
+     * Unpack the events of an envelope; an envelope that cannot be read is delivered as one event
+     * with the pack header kept.
+     */
+    private void unpack(MessageExt messageExt, byte[] body, Map<String, String> headers, String packed, List<Event> events) {
+        try {
+            events.addAll(EventEnvelope.unpack(body, headers, Integer.parseInt(packed)));
+        } catch ( Exception e ) {
+            LOG.error("Unpack message body failed, msgId=" + messageExt.getMsgId(), e);
+            headers.put(RocketMQSourceConstant.PACK_PROPERTY, packed);
+            Event event = new SimpleEvent();
+            event.setHeaders(headers);
+            event.setBody(body);
+            events.add(event);
+        }
+    }
+
+    /**
+     * Hand a chunk to the assembler, which holds the queue's committed offset back until the
+     * group has been delivered.
+     *
+     * @return the whole body with the last chunk of its group, null for the others.
+     */
+    private byte[] unchunk(MessageQueue queue, MessageExt messageExt, String chunkGroup) {
+        try {
+            return chunkAssembler.offer(queue, messageExt.getQueueOffset(), chunkGroup,
+                    Integer.parseInt(messageExt.getProperty(RocketMQSourceConstant.CHUNK_INDEX_PROPERTY)),
+                    Integer.parseInt(messageExt.getProperty(RocketMQSourceConstant.CHUNK_COUNT_PROPERTY)),
+                    messageExt.getBody());
+        } catch ( NumberFormatException e ) {
+            LOG.error("Invalid chunk properties, msgId=" + messageExt.getMsgId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Inflate a body compressed by RocketMQSink. A body that cannot be inflated is delivered as is,
+     * with the codec header kept so it can still be recognized downstream.
+     */
+    private byte[] decode(MessageExt messageExt, byte[] raw, Map<String, String> headers) {
+        String codec = messageExt.getProperty(RocketMQSourceConstant.CODEC_PROPERTY);
+        if ( null == codec ) {
+            return raw;
+        }
+        try {
+            byte[] body = BodyCodec.valueOf(codec).decompress(raw);
+            headers.remove(RocketMQSourceConstant.CODEC_PROPERTY);
+            return body;
+        } catch ( Exception e ) {
+            LOG.error("Decompress message body failed, codec=" + codec + ", msgId=" + messageExt.getMsgId(), e);
+            return raw;
+        }
+    }
+
     private void process0(Set<MessageQueue> messageQueues, boolean useLongPull, List<Event> events)
             throws MQClientException, RemotingException, InterruptedException, MQBrokerException {
         if ( !useLongPull ) {
             for ( MessageQueue messageQueue : messageQueues ) {
-                long offset = consumer.fetchConsumeOffset(messageQueue, false);
-                if ( offset < 0 ) {
-                    offset = 0;
-                }
+                long offset = offsets.get(messageQueue);
                 boolean needToSwitch;
                 do {
-                    PullResult pullResult = consumer.pull(messageQueue, tag, offset, pullBatchSize);
-                    needToSwitch = !handlePullResult(pullResult, events);
+                    PullResult pullResult = consumer.pull(messageQueue, tagFilter.getExpression(), offset, pullBatchSize);
+                    needToSwitch = !handlePullResult(messageQueue, pullResult, events);
                     if ( !needToSwitch ) {
                         processEvent(events, messageQueue, pullResult.getNextBeginOffset());
                         // Update next offset.
@@ -144,23 +291,23 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
         } else {
             // Randomly choose one message queue and start to long pulling.
             MessageQueue messageQueue = messageQueues.iterator().next();
-            long offset = consumer.fetchConsumeOffset(messageQueue, false);
-            if ( offset < 0 ) {
-                offset = 0;
-            }
-            PullResult pullResult = consumer.pullBlockIfNotFound(messageQueue, tag, offset, pullBatchSize);
-            if ( handlePullResult(pullResult, events) ) {
-                processEvent(events, messageQueue, offset);
+            long offset = offsets.get(messageQueue);
+            PullResult pullResult = consumer.pullBlockIfNotFound(messageQueue, tagFilter.getExpression(), offset, pullBatchSize);
+            if ( handlePullResult(messageQueue, pullResult, events) ) {
+                processEvent(events, messageQueue, pullResult.getNextBeginOffset());
             }
         }
     }
 
-    private void processEvent(List<Event> events, MessageQueue messageQueue, long offset) throws MQClientException {
+    private void processEvent(List<Event> events, MessageQueue messageQueue, long offset) {
         int eventSize = events.size();
         counter.addToEventReceivedCount(eventSize);
 
-        getChannelProcessor().processEventBatch(events);
-        consumer.updateConsumeOffset(messageQueue, offset);
+        // 按batchSize分批写入channel, 中途失败时下次从offset重新拉取
+        for ( int from = 0; from < eventSize; from += batchSize ) {
+            getChannelProcessor().processEventBatch(events.subList(from, Math.min(eventSize, from + batchSize)));
+        }
+        commit(messageQueue, offset);
         events.clear();
 
         counter.addToEventAcceptedCount(eventSize);
@@ -170,7 +317,10 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
         try {
 //            startTime = System.currentTimeMillis();
             Set<MessageQueue> messageQueueSet = messageQueues.get();
-            if ( null == messageQueueSet || messageQueueSet.isEmpty() ) {
+            if ( null != handoff ) {
+                // 等待预取缓冲本身就是退避, 不需要SinkRunner再休眠
+                return processHandoff();
+            } else if ( null == messageQueueSet || messageQueueSet.isEmpty() ) {
                 LOG.warn("Message queues allocated to this client are currently empty");
                 return Status.BACKOFF;
             } else {
@@ -178,13 +328,81 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
                 process0(messageQueueSet, false, events);
                 process0(messageQueueSet, true, events);
             }
+        } catch ( ChannelException e ) {
+            // channel已满, 由PollableSourceRunner退避后重新投递
+            LOG.warn("RocketMQSource put events failed: {}", e.toString());
+            return Status.BACKOFF;
         } catch ( Exception e ) {
             LOG.error("RocketMQSource process error", e);
-            return Status.BACKOFF;
+            return null == handoff ? Status.BACKOFF : Status.READY;
+        }
+        return Status.READY;
+    }
+
+    /**
+     * Deliver the batches the pull threads handed off, taking up to pullBatchSize events from the
+     * handoff and putting them into the channel batchSize events at a time, and commit a batch's
+     * offset once the channel took all of its events. Events the channel refused are delivered
+     * again by the next call, before any new one, from the first one not taken. Returns READY
+     * even when nothing arrived: the timed wait on the handoff already is the backoff.
+     */
+    private Status processHandoff() throws InterruptedException {
+        if ( undelivered.isEmpty() ) {
+            PulledBatch batch = handoff.poll(RocketMQSourceConstant.HANDOFF_POLL_TIMEOUT);
+            if ( null == batch ) {
+                return Status.READY;
+            }
+            int size = 0;
+            do {
+                undelivered.add(batch);
+                size += batch.events.size();
+            } while ( size < pullBatchSize && null != (batch = handoff.poll()) );
+        }
+        while ( !undelivered.isEmpty() ) {
+            List<Event> events = new ArrayList<Event>();
+            for ( PulledBatch batch : undelivered ) {
+                int count = Math.min(batch.events.size() - batch.delivered, batchSize - events.size());
+                events.addAll(batch.events.subList(batch.delivered, batch.delivered + count));
+                if ( events.size() >= batchSize ) {
+                    break;
+                }
+            }
+            if ( !events.isEmpty() ) {
+                counter.addToEventReceivedCount(events.size());
+                getChannelProcessor().processEventBatch(events);
+                counter.addToEventAcceptedCount(events.size());
+            }
+            int accepted = events.size();
+            for ( Iterator<PulledBatch> it = undelivered.iterator(); it.hasNext(); ) {
+                PulledBatch batch = it.next();
+                int count = Math.min(batch.events.size() - batch.delivered, accepted);
+                batch.delivered += count;
+                accepted -= count;
+                if ( batch.delivered < batch.events.size() ) {
+                    break;
+                }
+                it.remove();
+                commit(batch.queue, batch.nextOffset);
+                if ( null != batch.poller ) {
+                    batch.poller.delivered(batch.nextOffset);
+                }
+            }
+        }
+        AsyncPoller poller;
+        while ( !handoff.isFull() && null != (poller = parked.poll()) ) {
+            poller.pull();
         }
         return Status.READY;
     }
 
+    /**
+     * The messages before nextOffset have been delivered; the offset written back stays at the
+     * first chunk of any group of the queue not delivered yet, so a restart pulls it again.
+     */
+    private void commit(MessageQueue queue, long nextOffset) {
+        offsets.commit(queue, nextOffset, chunkAssembler.committable(queue, nextOffset));
+    }
+
     @Override public long getBackOffSleepIncrement() {
         return backoffSleepIncrement;
     }
@@ -201,24 +419,310 @@ public class RocketMQSource extends AbstractSource implements Configurable, Poll
             consumer.registerMessageQueueListener(topic, new DefaultMessageQueueListener());
             Set<MessageQueue> messageQueueSet = consumer.fetchSubscribeMessageQueues(topic);
             messageQueues.set(messageQueueSet);
+            offsets.assign(messageQueueSet);
         } catch ( MQClientException e ) {
             LOG.error("RocketMQSource start consumer failed", e);
         }
+        offsets.start(getName(), offsetFlushInterval);
+        running = true;
+        for ( int i = 0; i < pullThreads; i++ ) {
+            Thread thread = new Thread(new BrokerPuller(i), getName() + "-pull-" + i);
+            thread.setDaemon(true);
+            pullers.add(thread);
+            thread.start();
+        }
+        if ( asyncPull ) {
+            pullRetryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, getName() + "-pull-retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            assignPollers(messageQueues.get());
+        }
         super.start();
     }
 
     @Override public synchronized void stop() {
+        running = false;
+        for ( Thread thread : pullers ) {
+            thread.interrupt();
+        }
+        for ( Thread thread : pullers ) {
+            try {
+                thread.join(RocketMQSourceConstant.PULL_MAX_BACKOFF_SLEEP);
+            } catch ( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pullers.clear();
+        if ( asyncPull ) {
+            assignPollers(Collections.<MessageQueue>emptySet());
+            pullRetryTimer.shutdownNow();
+        }
+        if ( null != handoff ) {
+            // 未投递的批次没有提交offset, 重启后重新拉取
+            handoff.clear();
+        }
+        parked.clear();
+        undelivered.clear();
+        offsets.stop();
         // 停止Producer
         consumer.shutdown();
         counter.stop();
         LOG.warn("RocketMQSource stop consumer {}, Metrics:{} ", getName(), counter);
     }
 
+    /**
+     * The events pulled from one queue and the offset to commit once the channel took them.
+     */
+    static class PulledBatch {
+
+        final MessageQueue queue;
+
+        final List<Event> events;
+
+        final long nextOffset;
+
+        final long bytes;//拉取到的消息体字节数
+
+        final AsyncPoller poller;//异步长轮询时, 投递后由它发起下一次拉取
+
+        int delivered;//已写入channel的event数, 只由process线程访问
+
+        PulledBatch(MessageQueue queue, List<Event> events, PullResult pullResult, AsyncPoller poller) {
+            this.queue = queue;
+            this.events = events;
+            this.nextOffset = pullResult.getNextBeginOffset();
+            long bytes = 0;
+            for ( MessageExt messageExt : pullResult.getMsgFoundList() ) {
+                bytes += messageExt.getBody().length;
+            }
+            this.bytes = bytes;
+            this.poller = poller;
+        }
+    }
+
+    /**
+     * Start a poller for every newly assigned queue and retire the ones of revoked queues; the
+     * outstanding pull of a retired poller is ignored when it comes back.
+     */
+    private synchronized void assignPollers(Set<MessageQueue> assigned) {
+        if ( null == assigned ) {
+            return;
+        }
+        for ( Iterator<Map.Entry<MessageQueue, AsyncPoller>> it = pollers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<MessageQueue, AsyncPoller> entry = it.next();
+            if ( !assigned.contains(entry.getKey()) ) {
+                entry.getValue().active = false;
+                it.remove();
+            }
+        }
+        if ( !running ) {
+            return;
+        }
+        for ( MessageQueue queue : assigned ) {
+            if ( !pollers.containsKey(queue) ) {
+                AsyncPoller poller = new AsyncPoller(queue);
+                pollers.put(queue, poller);
+                poller.pull();
+            }
+        }
+    }
+
+    /**
+     * Keeps one pullBlockIfNotFound outstanding on its queue. The broker holds the request until
+     * messages arrive, so an idle queue costs nothing; found messages are handed to the process
+     * thread, and the next pull is only issued once they have been delivered, so a queue never
+     * has more than one batch waiting.
+     */
+    class AsyncPoller implements PullCallback {
+
+        private final MessageQueue queue;
+
+        private volatile long offset = -1;
+
+        private volatile boolean active = true;
+
+        AsyncPoller(MessageQueue queue) {
+            this.queue = queue;
+        }
+
+        void pull() {
+            if ( !active || !running ) {
+                return;
+            }
+            try {
+                if ( offset < 0 ) {
+                    offset = offsets.get(queue);
+                }
+                consumer.pullBlockIfNotFound(queue, tagFilter.getExpression(), offset, pullBatchSize, this);
+            } catch ( Exception e ) {
+                LOG.warn("Async pull " + queue + " failed", e);
+                pullLater();
+            }
+        }
+
+        void delivered(long nextOffset) {
+            offset = nextOffset;
+            if ( handoff.isFull() ) {
+                parked.add(this);
+            } else {
+                pull();
+            }
+        }
+
+        @Override public void onSuccess(PullResult pullResult) {
+            if ( !active || !running ) {
+                return;
+            }
+            List<Event> events = new ArrayList<Event>();
+            if ( handlePullResult(queue, pullResult, events) ) {
+                PulledBatch batch = new PulledBatch(queue, events, pullResult, this);
+                // 回调线程不等待, 缓冲超限时由delivered暂停下一次拉取
+                handoff.add(batch, events.size(), batch.bytes);
+                return;
+            }
+            offset = pullResult.getNextBeginOffset();
+            switch ( pullResult.getPullStatus() ) {
+            case NO_NEW_MSG:
+                // fall through on purpose.
+            case NO_MATCHED_MSG:
+                pull();
+                break;
+            default:
+                pullLater();
+                break;
+            }
+        }
+
+        @Override public void onException(Throwable e) {
+            LOG.warn("Async pull " + queue + " failed", e);
+            pullLater();
+        }
+
+        private void pullLater() {
+            try {
+                pullRetryTimer.schedule(new Runnable() {
+                    @Override public void run() {
+                        pull();
+                    }
+                }, RocketMQSourceConstant.PULL_MAX_BACKOFF_SLEEP, TimeUnit.MILLISECONDS);
+            } catch ( RejectedExecutionException e ) {
+                // source已停止
+            }
+        }
+    }
+
+    /**
+     * Pulls the queues of every pullThreads-th broker (by name) of the current assignment, so a
+     * slow broker only holds up the thread it is on. The pull position of every queue runs ahead
+     * of the OffsetTracker, which is only advanced by the process thread after delivery.
+     */
+    class BrokerPuller implements Runnable {
+
+        private final int index;
+
+        private final Map<MessageQueue, Long> nextOffsets = new HashMap<MessageQueue, Long>();//拉取位置, 领先于OffsetTracker
+
+        BrokerPuller(int index) {
+            this.index = index;
+        }
+
+        @Override public void run() {
+            int backoffs = 0;
+            while ( running ) {
+                try {
+                    Set<MessageQueue> assigned = messageQueues.get();
+                    boolean found = false;
+                    if ( null != assigned ) {
+                        int i = 0;
+                        for ( List<MessageQueue> queues : byBroker(assigned).values() ) {
+                            if ( i++ % pullThreads != index ) {
+                                continue;
+                            }
+                            for ( MessageQueue queue : queues ) {
+                                found |= pull(queue);
+                            }
+                        }
+                        // 重新分配后不再属于本client的queue, 再分配回来时从OffsetTracker重新获取offset
+                        nextOffsets.keySet().retainAll(assigned);
+                    }
+                    if ( found ) {
+                        backoffs = 0;
+                    } else {
+                        backoffs++;
+                        Thread.sleep(Math.min(backoffs * RocketMQSourceConstant.PULL_BACKOFF_SLEEP_INCREMENT,
+                                RocketMQSourceConstant.PULL_MAX_BACKOFF_SLEEP));
+                    }
+                } catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch ( Exception e ) {
+                    LOG.error("RocketMQSource pull thread " + index + " failed", e);
+                    try {
+                        Thread.sleep(RocketMQSourceConstant.PULL_MAX_BACKOFF_SLEEP);
+                    } catch ( InterruptedException e2 ) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return true if messages were found and handed off
+         */
+        boolean pull(MessageQueue queue) throws Exception {
+            Long offset = nextOffsets.get(queue);
+            if ( null == offset ) {
+                // OffsetTracker中没有时从offset store获取
+                offset = RocketMQSource.this.offsets.get(queue);
+            }
+            PullResult pullResult = consumer.pull(queue, tagFilter.getExpression(), offset, pullBatchSize);
+            List<Event> events = new ArrayList<Event>();
+            if ( !handlePullResult(queue, pullResult, events) ) {
+                return false;
+            }
+            PulledBatch batch = new PulledBatch(queue, events, pullResult, null);
+            while ( !handoff.put(batch, events.size(), batch.bytes, RocketMQSourceConstant.HANDOFF_POLL_TIMEOUT) ) {
+                if ( !running ) {
+                    return false;
+                }
+            }
+            nextOffsets.put(queue, pullResult.getNextBeginOffset());
+            return true;
+        }
+    }
+
+    private static Map<String, List<MessageQueue>> byBroker(Set<MessageQueue> queues) {
+        Map<String, List<MessageQueue>> brokers = new TreeMap<String, List<MessageQueue>>();
+        for ( MessageQueue queue : queues ) {
+            List<MessageQueue> list = brokers.get(queue.getBrokerName());
+            if ( null == list ) {
+                list = new ArrayList<MessageQueue>();
+                brokers.put(queue.getBrokerName(), list);
+            }
+            list.add(queue);
+        }
+        return brokers;
+    }
+
     class DefaultMessageQueueListener implements MessageQueueListener {
 
         @Override
         public void messageQueueChanged(String topic, Set<MessageQueue> mqAll, Set<MessageQueue> mqDivided) {
             messageQueues.getAndSet(mqDivided);
+            try {
+                offsets.assign(mqDivided);
+            } catch ( MQClientException e ) {
+                // 未取到的queue在第一次拉取时再从offset store获取
+                LOG.warn("Fetch offsets of assigned queues failed", e);
+            }
+            if ( asyncPull ) {
+                assignPollers(mqDivided);
+            }
         }
     }
 }
@@ -21,7 +21,23 @@ public class RocketMQSourceConstant {
     public static final String CONSUME_TIMESTAMP = "consumeTimestamp";
     public static final String EXTRA = "extra";
     public static final String PULL_BATCH_SIZE = "pullBatchSize";
+    public static final String BATCH_SIZE = "batchSize";
+    public static final String CHUNK_BUFFER_SIZE = "chunkBufferSize";
+    public static final String CHUNK_TIMEOUT = "chunkTimeout";
+    public static final String PULL_THREADS = "pullThreads";
+    public static final String ASYNC_PULL = "asyncPull";
+    public static final String PREFETCH = "prefetch";
+    public static final String PREFETCH_MAX_EVENTS = "prefetchMaxEvents";
+    public static final String PREFETCH_MAX_BYTES = "prefetchMaxBytes";
+    public static final String OFFSET_FLUSH_INTERVAL = "offsetFlushInterval";
 
+    /* message properties */
+    public static final String CODEC_PROPERTY = "rmqflume.codec";
+    public static final String PACK_PROPERTY = "rmqflume.pack";
+    public static final String HEADERS_PROPERTY = "rmqflume.headers";
+    public static final String CHUNK_GROUP_PROPERTY = "rmqflume.chunk.group";
+    public static final String CHUNK_INDEX_PROPERTY = "rmqflume.chunk.index";
+    public static final String CHUNK_COUNT_PROPERTY = "rmqflume.chunk.count";
 
     /* default */
     public static final String DEFAULT_TOPIC = "T_QuickStart";
@@ -30,4 +46,14 @@ public class RocketMQSourceConstant {
     public static final String DEFAULT_MESSAGE_MODEL = "CLUSTERING";
     public static final String DEFAULT_CONSUME_FROM_WHERE = "CONSUME_FROM_LAST_OFFSET";
     public static final int DEFAULT_PULL_BATCH_SIZE = 128;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_CHUNK_BUFFER_SIZE = 64L * 1024 * 1024;
+    public static final long DEFAULT_CHUNK_TIMEOUT = 60000L;
+    public static final int DEFAULT_PREFETCH_MAX_EVENTS = 2048;
+    public static final long DEFAULT_PREFETCH_MAX_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_OFFSET_FLUSH_INTERVAL = 1000L;
+    public static final long HANDOFF_POLL_TIMEOUT = 500L;
+    public static final int MAX_FILTERED_TAGS = 256;
+    public static final long PULL_BACKOFF_SLEEP_INCREMENT = 100L;
+    public static final long PULL_MAX_BACKOFF_SLEEP = 1000L;
 }
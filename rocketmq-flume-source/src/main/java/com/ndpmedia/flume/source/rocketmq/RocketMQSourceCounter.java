@@ -21,6 +21,8 @@ public class RocketMQSourceCounter extends SourceCounter implements RocketMQSour
     private static final String[] ATTRIBUTES =
             {TIMER_RMQ_EVENT_RECEIVED, TIMER_RMQ_EVENT_ACCEPTED};
 
+    private volatile TagFilter tagFilter;
+
     public RocketMQSourceCounter(String name) {
         super(name, ATTRIBUTES);
     }
@@ -29,6 +31,10 @@ public class RocketMQSourceCounter extends SourceCounter implements RocketMQSour
         super(name, attributes);
     }
 
+    public void setTagFilter(TagFilter tagFilter) {
+        this.tagFilter = tagFilter;
+    }
+
     public long addToEventReceivedTimer(long delta) {
         return addAndGet(TIMER_RMQ_EVENT_RECEIVED,delta);
     }
@@ -43,4 +49,14 @@ public class RocketMQSourceCounter extends SourceCounter implements RocketMQSour
     @Override public long getEventAcceptedTimer() {
         return get(TIMER_RMQ_EVENT_ACCEPTED);
     }
+
+    @Override public long getTagFilteredCount() {
+        TagFilter filter = tagFilter;
+        return null == filter ? 0 : filter.getFilteredCount();
+    }
+
+    @Override public String getTagFilteredByTag() {
+        TagFilter filter = tagFilter;
+        return null == filter ? "" : filter.describeFiltered();
+    }
 }
@@ -13,4 +13,8 @@ public interface RocketMQSourceCounterMBean {
 
     long getEventAcceptedTimer();
 
+    long getTagFilteredCount();
+
+    String getTagFilteredByTag();
+
 }
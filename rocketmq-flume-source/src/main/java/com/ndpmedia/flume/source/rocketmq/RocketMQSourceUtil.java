@@ -9,6 +9,8 @@ import com.alibaba.rocketmq.common.UtilAll;
 import com.alibaba.rocketmq.common.consumer.ConsumeFromWhere;
 import com.alibaba.rocketmq.common.protocol.heartbeat.MessageModel;
 import org.apache.flume.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * RocketMQSinkUtil Created with rocketmq-flume.
@@ -19,9 +21,11 @@ import org.apache.flume.Context;
  */
 public class RocketMQSourceUtil {
 
+    private static final Logger LOG = LoggerFactory.getLogger(RocketMQSourceUtil.class);
+
     public static MQPullConsumer getConsumerInstance(Context context) {
         final String consumerGroup = context.getString(RocketMQSourceConstant.CONSUMER_GROUP, RocketMQSourceConstant.DEFAULT_CONSUMER_GROUP);
-        System.out.println("----------consumerGroup is " + consumerGroup + " -----------");
+        LOG.debug("consumerGroup is {}", consumerGroup);
 
         DefaultMQPullConsumer consumer = new DefaultMQPullConsumer(consumerGroup);
 
@@ -35,7 +39,7 @@ public class RocketMQSourceUtil {
             } else if ( nameSrvAddr.contains(":") ) {//包含port的话，就设置consumer的nameSrvAddr
                 consumer.setNamesrvAddr(nameSrvAddr);//from jvm
             } else {//这里是因为我厂更改了RocketMQ的namesrv获取方式而自定义的，可忽略
-                System.out.println("------------nameSrvAddr is " + nameSrvAddr + " and not set consumer.namesrvAddr---------------");
+                LOG.debug("nameSrvAddr is {} and not set consumer.namesrvAddr", nameSrvAddr);
             }
         }
         consumer.setMessageModel(MessageModel.valueOf(context.getString(RocketMQSourceConstant.MESSAGE_MODEL, RocketMQSourceConstant.DEFAULT_MESSAGE_MODEL)));
@@ -45,7 +49,7 @@ public class RocketMQSourceUtil {
         consumer.setAllocateMessageQueueStrategy(new AllocateMessageQueueByDataCenter(clientInstance));
 
         consumer.setMessageModel(MessageModel.CLUSTERING);
-        System.out.println("----------nameSrvAddr is " + nameSrvAddr + " -----------");
+        LOG.info("consumer of group {} created, nameSrvAddr is {}", consumerGroup, nameSrvAddr);
         return consumer;
     }
 }
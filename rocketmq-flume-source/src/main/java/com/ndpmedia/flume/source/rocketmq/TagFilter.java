@@ -0,0 +1,92 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TagFilter Created with rocketmq-flume.
+ *
+ * Client-side tag filter for a subscription expression such as "TagA || TagB", parsed once the
+ * way the broker does: a message passes when its tag is in the tag set (the broker only compares
+ * hash codes, so this also drops tags colliding with a subscribed one). "*" or an empty
+ * expression passes everything. Filtered messages are counted per tag, up to maxTags distinct tags.
+ */
+public class TagFilter {
+
+    private static final String NO_TAG = "";
+
+    private final String expression;
+
+    private final boolean all;
+
+    private final Set<String> tags = new HashSet<String>();
+
+    private final int maxTags;
+
+    private final AtomicLong filtered = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> filteredByTag = new ConcurrentHashMap<String, AtomicLong>();
+
+    public TagFilter(String expression, int maxTags) {
+        this.maxTags = maxTags;
+        if ( null == expression || expression.trim().length() == 0 || expression.trim().equals("*") ) {
+            this.expression = "*";
+            this.all = true;
+            return;
+        }
+        for ( String tag : expression.split("\\|\\|") ) {
+            tag = tag.trim();
+            if ( tag.length() > 0 ) {
+                tags.add(tag);
+            }
+        }
+        this.all = tags.isEmpty();
+        this.expression = all ? "*" : expression.trim();
+    }
+
+    public boolean accept(String tag) {
+        if ( all || (null != tag && tags.contains(tag)) ) {
+            return true;
+        }
+        filtered.incrementAndGet();
+        String key = null == tag ? NO_TAG : tag;
+        AtomicLong count = filteredByTag.get(key);
+        if ( null == count && filteredByTag.size() < maxTags ) {
+            count = new AtomicLong();
+            AtomicLong existing = filteredByTag.putIfAbsent(key, count);
+            if ( null != existing ) {
+                count = existing;
+            }
+        }
+        if ( null != count ) {
+            count.incrementAndGet();
+        }
+        return false;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public long getFilteredCount() {
+        return filtered.get();
+    }
+
+    /**
+     * tag=count;... of the filtered messages, messages without a tag under an empty name.
+     */
+    public String describeFiltered() {
+        StringBuilder sb = new StringBuilder();
+        for ( Map.Entry<String, AtomicLong> entry : filteredByTag.entrySet() ) {
+            if ( sb.length() > 0 ) {
+                sb.append(';');
+            }
+            sb.append(entry.getKey()).append('=').append(entry.getValue().get());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,45 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.junit.Test;
+import org.xerial.snappy.Snappy;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class TestBodyCodec {
+
+    private static byte[] body() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < 200; i++ ) {
+            sb.append("127.0.0.1 - - [17/Oct/2016:10:00:").append(i % 60).append("] \"GET /index.html HTTP/1.1\" 200 612\n");
+        }
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(body());
+        gzip.close();
+        assertArrayEquals(body(), BodyCodec.GZIP.decompress(out.toByteArray()));
+    }
+
+    @Test
+    public void testDeflate() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DeflaterOutputStream deflate = new DeflaterOutputStream(out);
+        deflate.write(body());
+        deflate.close();
+        assertArrayEquals(body(), BodyCodec.DEFLATE.decompress(out.toByteArray()));
+    }
+
+    @Test
+    public void testSnappy() throws Exception {
+        assertArrayEquals(body(), BodyCodec.SNAPPY.decompress(Snappy.compress(body())));
+    }
+
+}
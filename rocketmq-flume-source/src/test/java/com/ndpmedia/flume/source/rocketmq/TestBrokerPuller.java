@@ -0,0 +1,64 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.client.consumer.MQPullConsumer;
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.apache.flume.Context;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestBrokerPuller {
+
+    @Test
+    public void testPullFromStoredOffsetThenAhead() throws Exception {
+        final List<Long> pulledAt = new ArrayList<Long>();
+        MQPullConsumer consumer = (MQPullConsumer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {MQPullConsumer.class}, new InvocationHandler() {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ( method.getName().equals("fetchConsumeOffset") ) {
+                            return 5L;
+                        }
+                        if ( method.getName().equals("pull") && args.length == 4 ) {
+                            long offset = (Long) args[2];
+                            pulledAt.add(offset);
+                            MessageExt messageExt = new MessageExt();
+                            messageExt.setTags("TagA");
+                            messageExt.setBody(new byte[] {1, 2, 3});
+                            return new PullResult(PullStatus.FOUND, offset + 1, 0, 100,
+                                    Collections.singletonList(messageExt));
+                        }
+                        return null;
+                    }
+                });
+
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RocketMQSourceConstant.TOPIC, "T_TEST");
+        config.put(RocketMQSourceConstant.PULL_THREADS, "1");
+        RocketMQSource source = new RocketMQSource();
+        source.configure(new Context(config));
+        Field field = RocketMQSource.class.getDeclaredField("consumer");
+        field.setAccessible(true);
+        field.set(source, consumer);
+
+        MessageQueue queue = new MessageQueue("T_TEST", "broker-a", 0);
+        RocketMQSource.BrokerPuller puller = source.new BrokerPuller(0);
+        assertTrue(puller.pull(queue));
+        assertTrue(puller.pull(queue));
+        assertEquals(5L, (long) pulledAt.get(0));
+        assertEquals(6L, (long) pulledAt.get(1));
+    }
+}
@@ -0,0 +1,69 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestChunkAssembler {
+
+    @Test
+    public void testAssembleOutOfOrder() throws Exception {
+        ChunkAssembler assembler = new ChunkAssembler(1024, 60000);
+        assertNull(assembler.offer("g1", 2, 3, "c".getBytes("UTF-8")));
+        assertNull(assembler.offer("g1", 0, 3, "a".getBytes("UTF-8")));
+        // 重复的分片被忽略
+        assertNull(assembler.offer("g1", 0, 3, "a".getBytes("UTF-8")));
+        assertArrayEquals("abc".getBytes("UTF-8"), assembler.offer("g1", 1, 3, "b".getBytes("UTF-8")));
+        assertEquals(0, assembler.getPendingGroups());
+        assertEquals(0, assembler.getPendingBytes());
+    }
+
+    @Test
+    public void testOldestGroupEvictedOverMaxBytes() {
+        ChunkAssembler assembler = new ChunkAssembler(10, 60000);
+        assertNull(assembler.offer("g1", 0, 2, new byte[6]));
+        assertNull(assembler.offer("g2", 0, 2, new byte[6]));
+        assertEquals(1, assembler.getPendingGroups());
+        assertEquals(1, assembler.getDroppedGroups());
+        assertEquals(6, assembler.offer("g2", 1, 2, new byte[0]).length);
+    }
+
+    @Test
+    public void testIncompleteGroupTimesOut() throws Exception {
+        ChunkAssembler assembler = new ChunkAssembler(1024, 0);
+        assertNull(assembler.offer("g1", 0, 2, new byte[1]));
+        Thread.sleep(2);
+        assertNull(assembler.offer("g2", 0, 2, new byte[1]));
+        assertEquals(1, assembler.getDroppedGroups());
+    }
+
+    @Test
+    public void testRestartPullsPartialGroupAgain() throws Exception {
+        MessageQueue queue = new MessageQueue("T_TEST", "broker-a", 0);
+        ChunkAssembler assembler = new ChunkAssembler(1024, 60000);
+        assertNull(assembler.offer(queue, 10, "g1", 0, 2, "a".getBytes("UTF-8")));
+        // 后面的消息已投递, 写回的offset仍停在未组装完的组的第一个分片
+        assertEquals(10, assembler.committable(queue, 12));
+
+        // 重启后内存中的分片丢失, 从offset store中的10重新拉取
+        ChunkAssembler restarted = new ChunkAssembler(1024, 60000);
+        assertNull(restarted.offer(queue, 10, "g1", 0, 2, "a".getBytes("UTF-8")));
+        assertArrayEquals("ab".getBytes("UTF-8"), restarted.offer(queue, 12, "g1", 1, 2, "b".getBytes("UTF-8")));
+        // 组装出的event所在批次投递后才放开
+        assertEquals(10, restarted.committable(queue, 12));
+        assertEquals(13, restarted.committable(queue, 13));
+    }
+
+    @Test
+    public void testDroppedGroupReleasesOffset() throws Exception {
+        MessageQueue queue = new MessageQueue("T_TEST", "broker-a", 0);
+        ChunkAssembler assembler = new ChunkAssembler(1024, 0);
+        assertNull(assembler.offer(queue, 5, "g1", 0, 2, new byte[1]));
+        Thread.sleep(2);
+        assertEquals(8, assembler.committable(queue, 8));
+        assertEquals(1, assembler.getDroppedGroups());
+    }
+}
@@ -0,0 +1,69 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.apache.flume.Event;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestEventEnvelope {
+
+    @Test
+    public void testUnpack() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry(out, Collections.singletonMap("app", "nginx"), "line-1");
+        entry(out, Collections.<String, String>emptyMap(), "");
+        StringBuilder large = new StringBuilder();
+        for ( int i = 0; i < 300; i++ ) {
+            large.append('x');
+        }
+        entry(out, Collections.singletonMap("topic", "inner"), large.toString());
+
+        List<Event> events = EventEnvelope.unpack(out.toByteArray(), Collections.singletonMap("topic", "T_TEST"), 3);
+        assertEquals(3, events.size());
+        assertEquals("nginx", events.get(0).getHeaders().get("app"));
+        assertEquals("T_TEST", events.get(0).getHeaders().get("topic"));
+        assertArrayEquals("line-1".getBytes("UTF-8"), events.get(0).getBody());
+        assertEquals(0, events.get(1).getBody().length);
+        assertEquals("inner", events.get(2).getHeaders().get("topic"));
+        assertEquals(300, events.get(2).getBody().length);
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncated() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entry(out, Collections.<String, String>emptyMap(), "line-1");
+        byte[] body = out.toByteArray();
+        byte[] truncated = new byte[body.length - 2];
+        System.arraycopy(body, 0, truncated, 0, truncated.length);
+        EventEnvelope.unpack(truncated, Collections.<String, String>emptyMap(), 1);
+    }
+
+    private static void entry(ByteArrayOutputStream out, Map<String, String> headers, String body) throws IOException {
+        varint(out, headers.size());
+        for ( Map.Entry<String, String> header : headers.entrySet() ) {
+            bytes(out, header.getKey().getBytes("UTF-8"));
+            bytes(out, header.getValue().getBytes("UTF-8"));
+        }
+        bytes(out, body.getBytes("UTF-8"));
+    }
+
+    private static void bytes(ByteArrayOutputStream out, byte[] bytes) throws IOException {
+        varint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void varint(ByteArrayOutputStream out, int value) {
+        while ( (value & ~0x7F) != 0 ) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+}
@@ -0,0 +1,77 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestOffsetTracker {
+
+    private final Map<MessageQueue, Long> stored = new HashMap<MessageQueue, Long>();
+
+    private int fetches;
+
+    private final OffsetTracker tracker = new OffsetTracker(new OffsetTracker.Store() {
+        @Override public long fetch(MessageQueue queue) {
+            fetches++;
+            Long offset = stored.get(queue);
+            return null == offset ? -1 : offset;
+        }
+
+        @Override public void update(MessageQueue queue, long offset) {
+            stored.put(queue, offset);
+        }
+    });
+
+    @Test
+    public void testSeededOnceAndFlushed() throws Exception {
+        MessageQueue q0 = new MessageQueue("T_TEST", "broker-a", 0);
+        MessageQueue q1 = new MessageQueue("T_TEST", "broker-a", 1);
+        stored.put(q0, 100L);
+        tracker.assign(new HashSet<MessageQueue>(Arrays.asList(q0, q1)));
+        assertEquals(2, fetches);
+        assertEquals(100, tracker.get(q0));
+        assertEquals(0, tracker.get(q1));
+
+        tracker.commit(q0, 132);
+        assertEquals(132, tracker.get(q0));
+        assertEquals(100L, (long) stored.get(q0));
+        tracker.flush();
+        assertEquals(132L, (long) stored.get(q0));
+        assertFalse(stored.containsKey(q1));
+        assertEquals(2, fetches);
+
+        // 写回的offset落后于拉取位置
+        tracker.commit(q0, 150, 140);
+        tracker.flush();
+        assertEquals(150, tracker.get(q0));
+        assertEquals(140L, (long) stored.get(q0));
+    }
+
+    @Test
+    public void testRevokedQueueWrittenAndDropped() throws Exception {
+        MessageQueue q0 = new MessageQueue("T_TEST", "broker-a", 0);
+        MessageQueue q1 = new MessageQueue("T_TEST", "broker-b", 0);
+        tracker.assign(new HashSet<MessageQueue>(Arrays.asList(q0, q1)));
+        tracker.commit(q1, 7);
+        Set<MessageQueue> remaining = Collections.singleton(q0);
+        tracker.assign(remaining);
+        // 回收时写回已提交的offset, 新的owner从这里继续
+        assertEquals(Long.valueOf(7), stored.get(q1));
+        assertEquals(1, tracker.size());
+
+        // rebalance前拉取的批次在queue被回收后提交
+        tracker.commit(q1, 9);
+        tracker.flush();
+        assertEquals(Long.valueOf(7), stored.get(q1));
+        assertEquals(1, tracker.size());
+    }
+}
@@ -0,0 +1,50 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestPrefetchBuffer {
+
+    @Test
+    public void testBoundedByEventsAndBytes() throws Exception {
+        PrefetchBuffer<String> buffer = new PrefetchBuffer<String>(10, 1000);
+        // 空缓冲总能放入一批, 即使超过上限
+        assertTrue(buffer.put("b1", 20, 10, 0));
+        assertTrue(buffer.isFull());
+        assertFalse(buffer.put("b2", 1, 10, 10));
+        assertEquals("b1", buffer.poll());
+
+        assertTrue(buffer.put("b2", 1, 600, 0));
+        assertTrue(buffer.put("b3", 1, 600, 0));
+        assertTrue(buffer.isFull());
+        assertEquals(1200, buffer.getBytes());
+        assertEquals("b2", buffer.poll(0));
+        assertEquals("b3", buffer.poll(0));
+        assertNull(buffer.poll(10));
+        assertEquals(0, buffer.getEvents());
+    }
+
+    @Test
+    public void testPutWaitsForPoll() throws Exception {
+        final PrefetchBuffer<String> buffer = new PrefetchBuffer<String>(1, 1000);
+        buffer.add("b1", 1, 1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch ( InterruptedException e ) {
+                    return;
+                }
+                buffer.poll();
+            }
+        });
+        consumer.start();
+        assertTrue(buffer.put("b2", 1, 1, 5000));
+        consumer.join();
+        assertEquals("b2", buffer.poll());
+    }
+}
@@ -0,0 +1,129 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import com.alibaba.rocketmq.client.consumer.MQPullConsumer;
+import com.alibaba.rocketmq.client.consumer.PullResult;
+import com.alibaba.rocketmq.client.consumer.PullStatus;
+import com.alibaba.rocketmq.common.message.MessageExt;
+import com.alibaba.rocketmq.common.message.MessageQueue;
+import org.apache.flume.Channel;
+import org.apache.flume.ChannelSelector;
+import org.apache.flume.Context;
+import org.apache.flume.PollableSource;
+import org.apache.flume.Transaction;
+import org.apache.flume.channel.ChannelProcessor;
+import org.apache.flume.channel.MemoryChannel;
+import org.apache.flume.channel.ReplicatingChannelSelector;
+import org.apache.flume.conf.Configurables;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestProcessHandoff {
+
+    @Test
+    public void testPackedBatchSplitToTransactionCapacity() throws Exception {
+        // 一条打包消息拆出25个event, 超过channel的transactionCapacity
+        final MessageExt packed = new MessageExt();
+        packed.setTags("TagA");
+        packed.setBody(envelope(25));
+        packed.putUserProperty(RocketMQSourceConstant.PACK_PROPERTY, "25");
+        MQPullConsumer consumer = (MQPullConsumer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class[] {MQPullConsumer.class}, new InvocationHandler() {
+                    @Override public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ( method.getName().equals("fetchConsumeOffset") ) {
+                            return 5L;
+                        }
+                        if ( method.getName().equals("pull") && args.length == 4 ) {
+                            return new PullResult(PullStatus.FOUND, (Long) args[2] + 1, 0, 100,
+                                    Collections.singletonList(packed));
+                        }
+                        return null;
+                    }
+                });
+
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(RocketMQSourceConstant.TOPIC, "T_TEST");
+        config.put(RocketMQSourceConstant.PULL_THREADS, "1");
+        config.put(RocketMQSourceConstant.BATCH_SIZE, "10");
+        RocketMQSource source = new RocketMQSource();
+        source.configure(new Context(config));
+        set(source, "consumer", consumer);
+        MessageQueue queue = new MessageQueue("T_TEST", "broker-a", 0);
+        ((AtomicReference<Set<MessageQueue>>) get(source, "messageQueues")).set(Collections.singleton(queue));
+
+        Map<String, String> channelConfig = new HashMap<String, String>();
+        channelConfig.put("capacity", "100");
+        channelConfig.put("transactionCapacity", "10");
+        Channel channel = new MemoryChannel();
+        Configurables.configure(channel, new Context(channelConfig));
+        channel.start();
+        ChannelSelector selector = new ReplicatingChannelSelector();
+        selector.setChannels(Collections.singletonList(channel));
+        source.setChannelProcessor(new ChannelProcessor(selector));
+
+        assertTrue(source.new BrokerPuller(0).pull(queue));
+        assertEquals(PollableSource.Status.READY, source.process());
+        assertEquals(6L, ((OffsetTracker) get(source, "offsets")).get(queue));
+
+        Transaction tx = channel.getTransaction();
+        tx.begin();
+        for ( int i = 0; i < 10; i++ ) {
+            assertNotNull(channel.take());
+        }
+        tx.commit();
+        tx.close();
+        tx = channel.getTransaction();
+        tx.begin();
+        for ( int i = 0; i < 10; i++ ) {
+            assertNotNull(channel.take());
+        }
+        tx.commit();
+        tx.close();
+        tx = channel.getTransaction();
+        tx.begin();
+        for ( int i = 0; i < 5; i++ ) {
+            assertNotNull(channel.take());
+        }
+        assertNull(channel.take());
+        tx.commit();
+        tx.close();
+        channel.stop();
+    }
+
+    private static byte[] envelope(int count) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for ( int i = 0; i < count; i++ ) {
+            // 没有header, body为1字节
+            out.write(0);
+            out.write(1);
+            out.write(i);
+        }
+        return out.toByteArray();
+    }
+
+    private static Object get(Object target, String name) throws Exception {
+        Field field = RocketMQSource.class.getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = RocketMQSource.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
@@ -0,0 +1,42 @@
+package com.ndpmedia.flume.source.rocketmq;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTagFilter {
+
+    @Test
+    public void testMultiTagExpression() {
+        TagFilter filter = new TagFilter(" TagA || TagB ||", 10);
+        assertEquals("TagA || TagB ||", filter.getExpression());
+        assertTrue(filter.accept("TagA"));
+        assertTrue(filter.accept("TagB"));
+        assertFalse(filter.accept("TagC"));
+        assertFalse(filter.accept("TagC"));
+        assertFalse(filter.accept(null));
+        assertEquals(3, filter.getFilteredCount());
+        assertTrue(filter.describeFiltered().contains("TagC=2"));
+        assertTrue(filter.describeFiltered().contains("=1"));
+    }
+
+    @Test
+    public void testAll() {
+        TagFilter filter = new TagFilter(" * ", 10);
+        assertEquals("*", filter.getExpression());
+        assertTrue(filter.accept("TagA"));
+        assertTrue(filter.accept(null));
+        assertEquals(0, filter.getFilteredCount());
+    }
+
+    @Test
+    public void testTrackedTagsBounded() {
+        TagFilter filter = new TagFilter("TagA", 1);
+        filter.accept("TagB");
+        filter.accept("TagC");
+        assertEquals(2, filter.getFilteredCount());
+        assertEquals("TagB=1", filter.describeFiltered());
+    }
+}